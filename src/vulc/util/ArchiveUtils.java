@@ -0,0 +1,457 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ArchiveUtils copies files and directories directly into an archive and back out of it,
+ * without writing a staging copy to disk. The supported formats are:
+ * <ul>
+ * <li>zip</li>
+ * <li>tar.gz, compressed in parallel</li>
+ * </ul>
+ * The archive contains the source with its name, so extracting it into a directory
+ * recreates the source inside that directory.
+ * @author Vulcalien
+ */
+public final class ArchiveUtils {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int TAR_BLOCK_SIZE = 512;
+
+	private ArchiveUtils() {
+	}
+
+	private static void transferData(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+		int lengthRead;
+		while((lengthRead = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, lengthRead);
+		}
+	}
+
+	/**
+	 * Returns the file the entry should be extracted to.
+	 * @throws IOException if the entry would be extracted outside of the destination directory
+	 */
+	private static File getEntryFile(File destination, String name) throws IOException {
+		File file = new File(destination, name).getCanonicalFile();
+		if(!file.getPath().startsWith(destination.getCanonicalPath() + File.separator))
+		    throw new IOException("Archive entry is outside of the destination directory: " + name);
+		return file;
+	}
+
+	// -------
+	// - zip -
+	// -------
+	/**
+	 * Copies a file or a directory into a zip archive.
+	 * @param source the file to archive
+	 * @param archive the zip file to create
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 */
+	public static void zip(File source, File archive) {
+		try(OutputStream out = new FileOutputStream(archive)) {
+			zip(source, out);
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Copies a file or a directory into a zip archive written to the output stream.
+	 * The stream is not closed.
+	 * @param source the file to archive
+	 * @param out the stream the archive is written to
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 */
+	public static void zip(File source, OutputStream out) throws IOException {
+		source = source.getCanonicalFile();
+		if(!source.exists()) throw new FileNotFoundException(source.toString());
+
+		ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		zipEntry(source, source.getName(), zip, new byte[BUFFER_SIZE]);
+		zip.finish();
+		zip.flush();
+	}
+
+	private static void zipEntry(File file, String name, ZipOutputStream zip, byte[] buffer) throws IOException {
+		if(file.isDirectory()) {
+			ZipEntry entry = new ZipEntry(name + "/");
+			entry.setTime(file.lastModified());
+			zip.putNextEntry(entry);
+			zip.closeEntry();
+
+			File[] files = file.listFiles();
+			for(int i = 0; i < files.length; i++) {
+				zipEntry(files[i], name + "/" + files[i].getName(), zip, buffer);
+			}
+		} else if(file.isFile()) {
+			ZipEntry entry = new ZipEntry(name);
+			entry.setTime(file.lastModified());
+			zip.putNextEntry(entry);
+			try(InputStream in = new FileInputStream(file)) {
+				transferData(in, zip, buffer);
+			}
+			zip.closeEntry();
+		}
+	}
+
+	/**
+	 * Extracts a zip archive into the destination directory.
+	 * @param archive the zip file to extract
+	 * @param destination the destination directory
+	 *
+	 * @throws IOException if an entry would be extracted outside of the destination directory
+	 */
+	public static void unzip(File archive, File destination) {
+		try(InputStream in = new FileInputStream(archive)) {
+			unzip(in, destination);
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Extracts a zip archive read from the input stream into the destination directory.
+	 * The stream is not closed.
+	 * @param in the stream the archive is read from
+	 * @param destination the destination directory
+	 *
+	 * @throws IOException if an entry would be extracted outside of the destination directory
+	 */
+	public static void unzip(InputStream in, File destination) throws IOException {
+		destination.mkdirs();
+
+		ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		byte[] buffer = new byte[BUFFER_SIZE];
+		ZipEntry entry;
+		while((entry = zip.getNextEntry()) != null) {
+			File file = getEntryFile(destination, entry.getName());
+			if(entry.isDirectory()) {
+				file.mkdirs();
+			} else {
+				file.getParentFile().mkdirs();
+				try(OutputStream out = new FileOutputStream(file)) {
+					transferData(zip, out, buffer);
+				}
+			}
+			if(entry.getTime() != -1) file.setLastModified(entry.getTime());
+		}
+	}
+
+	// ----------
+	// - tar.gz -
+	// ----------
+	/**
+	 * Copies a file or a directory into a tar.gz archive. The compression is performed
+	 * in parallel: the data is split into blocks that are compressed by several threads.
+	 * @param source the file to archive
+	 * @param archive the tar.gz file to create
+	 * @param parallelism the number of blocks compressed at the same time
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 */
+	public static void tarGz(File source, File archive, int parallelism) {
+		try(OutputStream out = new FileOutputStream(archive)) {
+			tarGz(source, out, parallelism);
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Copies a file or a directory into a tar.gz archive written to the output stream.
+	 * The compression is performed in parallel: the data is split into blocks that are compressed by several threads.
+	 * The stream is not closed.
+	 * @param source the file to archive
+	 * @param out the stream the archive is written to
+	 * @param parallelism the number of blocks compressed at the same time
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 */
+	public static void tarGz(File source, OutputStream out, int parallelism) throws IOException {
+		source = source.getCanonicalFile();
+		if(!source.exists()) throw new FileNotFoundException(source.toString());
+
+		OutputStream gzip = new ParallelGZIPOutputStream(new UncloseableOutputStream(out), parallelism);
+		try(OutputStream tar = new BufferedOutputStream(gzip, BUFFER_SIZE)) {
+			tarEntry(source, source.getName(), tar, new byte[BUFFER_SIZE]);
+
+			// the end of the archive is marked by two empty blocks
+			tar.write(new byte[TAR_BLOCK_SIZE * 2]);
+		}
+		out.flush();
+	}
+
+	private static void tarEntry(File file, String name, OutputStream tar, byte[] buffer) throws IOException {
+		if(file.isDirectory()) {
+			writeTarHeader(tar, name + "/", '5', 0, file.lastModified(), 0755);
+
+			File[] files = file.listFiles();
+			for(int i = 0; i < files.length; i++) {
+				tarEntry(files[i], name + "/" + files[i].getName(), tar, buffer);
+			}
+		} else if(file.isFile()) {
+			long size = file.length();
+			writeTarHeader(tar, name, '0', size, file.lastModified(), file.canExecute() ? 0755 : 0644);
+
+			long written = 0;
+			try(InputStream in = new FileInputStream(file)) {
+				int lengthRead;
+				while(written < size
+				      && (lengthRead = in.read(buffer, 0, (int) Math.min(buffer.length, size - written))) >= 0) {
+					tar.write(buffer, 0, lengthRead);
+					written += lengthRead;
+				}
+			}
+			if(written < size) throw new IOException("File shrank while being archived: " + file);
+
+			int padding = (int) (-size & (TAR_BLOCK_SIZE - 1));
+			tar.write(new byte[padding]);
+		}
+	}
+
+	/**
+	 * Writes a ustar header. Names longer than 100 bytes are stored in a GNU long name entry.
+	 */
+	private static void writeTarHeader(OutputStream tar, String name, char type,
+	                                   long size, long modified, int mode) throws IOException {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		if(nameBytes.length > 100) {
+			byte[] longName = new byte[nameBytes.length + 1];
+			System.arraycopy(nameBytes, 0, longName, 0, nameBytes.length);
+
+			writeTarHeader(tar, "././@LongLink", 'L', longName.length, 0, 0644);
+			tar.write(longName);
+			tar.write(new byte[-longName.length & (TAR_BLOCK_SIZE - 1)]);
+		}
+
+		byte[] header = new byte[TAR_BLOCK_SIZE];
+		System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+		writeOctal(header, 100, 8, mode);
+		writeOctal(header, 108, 8, 0);
+		writeOctal(header, 116, 8, 0);
+		writeOctal(header, 124, 12, size);
+		writeOctal(header, 136, 12, modified / 1000);
+		header[156] = (byte) type;
+		System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+		header[263] = '0';
+		header[264] = '0';
+
+		// the checksum is computed with its own field filled with spaces
+		for(int i = 148; i < 156; i++) {
+			header[i] = ' ';
+		}
+		long checksum = 0;
+		for(int i = 0; i < header.length; i++) {
+			checksum += header[i] & 0xff;
+		}
+		writeOctal(header, 148, 7, checksum);
+
+		tar.write(header);
+	}
+
+	/**
+	 * Writes a number as a NUL-terminated octal string.
+	 * If the number does not fit, it is written in the GNU base-256 format.
+	 */
+	private static void writeOctal(byte[] header, int offset, int length, long value) {
+		if(value >= 1L << (3 * (length - 1))) {
+			for(int i = offset + length - 1; i > offset; i--) {
+				header[i] = (byte) value;
+				value >>>= 8;
+			}
+			header[offset] = (byte) 0x80;
+			return;
+		}
+
+		String octal = Long.toOctalString(value);
+		int padding = length - 1 - octal.length();
+		for(int i = 0; i < padding; i++) {
+			header[offset + i] = '0';
+		}
+		for(int i = 0; i < octal.length(); i++) {
+			header[offset + padding + i] = (byte) octal.charAt(i);
+		}
+		header[offset + length - 1] = 0;
+	}
+
+	/**
+	 * Extracts a tar.gz archive into the destination directory.
+	 * @param archive the tar.gz file to extract
+	 * @param destination the destination directory
+	 *
+	 * @throws IOException if an entry would be extracted outside of the destination directory
+	 */
+	public static void untarGz(File archive, File destination) {
+		try(InputStream in = new FileInputStream(archive)) {
+			untarGz(in, destination);
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Extracts a tar.gz archive read from the input stream into the destination directory.
+	 * The stream is not closed.
+	 * @param in the stream the archive is read from
+	 * @param destination the destination directory
+	 *
+	 * @throws IOException if an entry would be extracted outside of the destination directory
+	 */
+	public static void untarGz(InputStream in, File destination) throws IOException {
+		destination.mkdirs();
+
+		InputStream tar = new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+		byte[] header = new byte[TAR_BLOCK_SIZE];
+		byte[] buffer = new byte[BUFFER_SIZE];
+		String longName = null;
+		while(true) {
+			readFully(tar, header, TAR_BLOCK_SIZE);
+			if(isEmpty(header)) break;
+
+			String name = longName != null ? longName : readName(header);
+			longName = null;
+
+			char type = (char) header[156];
+			long size = readOctal(header, 124, 12);
+			long modified = readOctal(header, 136, 12) * 1000;
+			int padding = (int) (-size & (TAR_BLOCK_SIZE - 1));
+
+			if(type == 'L') {
+				byte[] data = new byte[(int) size];
+				readFully(tar, data, data.length);
+				skipFully(tar, padding);
+
+				int end = 0;
+				while(end < data.length && data[end] != 0) end++;
+				longName = new String(data, 0, end, StandardCharsets.UTF_8);
+			} else if(type == '5') {
+				File file = getEntryFile(destination, name);
+				file.mkdirs();
+				file.setLastModified(modified);
+			} else if(type == '0' || type == 0) {
+				File file = getEntryFile(destination, name);
+				file.getParentFile().mkdirs();
+				try(OutputStream out = new FileOutputStream(file)) {
+					long remaining = size;
+					while(remaining > 0) {
+						int lengthRead = tar.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+						if(lengthRead < 0) throw new EOFException("Unexpected end of archive");
+						out.write(buffer, 0, lengthRead);
+						remaining -= lengthRead;
+					}
+				}
+				skipFully(tar, padding);
+
+				file.setLastModified(modified);
+				if((readOctal(header, 100, 8) & 0100) != 0) file.setExecutable(true);
+			} else {
+				// links and special files are not supported
+				skipFully(tar, size + padding);
+			}
+		}
+	}
+
+	private static String readName(byte[] header) {
+		String name = readString(header, 0, 100);
+		if(header[257] == 'u' && header[345] != 0) {
+			name = readString(header, 345, 155) + "/" + name;
+		}
+		return name;
+	}
+
+	private static String readString(byte[] header, int offset, int length) {
+		int end = offset;
+		while(end < offset + length && header[end] != 0) end++;
+		return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+	private static long readOctal(byte[] header, int offset, int length) {
+		if((header[offset] & 0x80) != 0) {
+			long value = 0;
+			for(int i = offset + 1; i < offset + length; i++) {
+				value = (value << 8) | (header[i] & 0xff);
+			}
+			return value;
+		}
+
+		long value = 0;
+		for(int i = offset; i < offset + length; i++) {
+			byte b = header[i];
+			if(b == 0 || b == ' ') {
+				if(value != 0) break;
+				continue;
+			}
+			value = (value << 3) + (b - '0');
+		}
+		return value;
+	}
+
+	private static boolean isEmpty(byte[] block) {
+		for(int i = 0; i < block.length; i++) {
+			if(block[i] != 0) return false;
+		}
+		return true;
+	}
+
+	private static void readFully(InputStream in, byte[] data, int length) throws IOException {
+		int offset = 0;
+		while(offset < length) {
+			int lengthRead = in.read(data, offset, length - offset);
+			if(lengthRead < 0) throw new EOFException("Unexpected end of archive");
+			offset += lengthRead;
+		}
+	}
+
+	private static void skipFully(InputStream in, long length) throws IOException {
+		while(length > 0) {
+			long skipped = in.skip(length);
+			if(skipped <= 0) {
+				if(in.read() < 0) throw new EOFException("Unexpected end of archive");
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+	}
+
+	/**
+	 * Prevents the caller's stream from being closed when the compression stream is closed.
+	 */
+	private static class UncloseableOutputStream extends FilterOutputStream {
+
+		private UncloseableOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(byte[] data, int offset, int length) throws IOException {
+			out.write(data, offset, length);
+		}
+
+		public void close() throws IOException {
+			out.flush();
+		}
+
+	}
+
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+
+import vulc.util.FileUtils.MoveStrategy;
+
+/**
+ * AsyncFileUtils performs FileUtils operations asynchronously.
+ * Every operation returns a CompletableFuture that completes exceptionally if the operation fails,
+ * instead of printing the error.<br>
+ * The number of operations running at the same time on each storage device is limited:
+ * the operations over the limit wait in a queue of the device, without taking a thread,
+ * and cancelling a future interrupts the operation if it is running.
+ *
+ * <p>By default, operations run on virtual threads if the Java runtime supports them,
+ * otherwise on a pool of daemon threads.
+ * @author Vulcalien
+ */
+public class AsyncFileUtils {
+
+	private final Executor executor;
+	private final boolean ownsExecutor;
+	private final int concurrencyPerDevice;
+
+	private final ConcurrentHashMap<Object, Device> devices = new ConcurrentHashMap<Object, Device>();
+
+	/**
+	 * Creates an AsyncFileUtils running the operations on virtual threads, if available.
+	 * @param concurrencyPerDevice the maximum number of operations running at the same time on a device
+	 */
+	public AsyncFileUtils(int concurrencyPerDevice) {
+		this(defaultExecutor(), true, concurrencyPerDevice);
+	}
+
+	/**
+	 * Creates an AsyncFileUtils running the operations on the given executor.
+	 * @param executor the executor running the operations
+	 * @param concurrencyPerDevice the maximum number of operations running at the same time on a device
+	 */
+	public AsyncFileUtils(Executor executor, int concurrencyPerDevice) {
+		this(executor, false, concurrencyPerDevice);
+	}
+
+	private AsyncFileUtils(Executor executor, boolean ownsExecutor, int concurrencyPerDevice) {
+		if(concurrencyPerDevice <= 0)
+		    throw new IllegalArgumentException("Concurrency per device must be positive: " + concurrencyPerDevice);
+
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.concurrencyPerDevice = concurrencyPerDevice;
+	}
+
+	private static ExecutorService defaultExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch(ReflectiveOperationException e) {
+			// virtual threads are not supported by this runtime
+		}
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "AsyncFileUtils");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Stops the default executor. Operations already submitted are completed.
+	 * If the executor was given by the caller, this method does nothing.
+	 */
+	public void shutdown() {
+		if(ownsExecutor) ((ExecutorService) executor).shutdown();
+	}
+
+	// --------
+	// - copy -
+	// --------
+	/**
+	 * Copies a file or a directory.
+	 * @see FileUtils#copy(File, File)
+	 */
+	public CompletableFuture<Void> copy(final File source, final File destination) {
+		return submit(destination, new Callable<Void>() {
+			public Void call() {
+				FileUtils.copy(source, destination);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Copies every source file to its destination.
+	 * @param files a map from every source to its destination
+	 * @return a future that completes when all the files have been copied
+	 */
+	public CompletableFuture<Void> copyAll(Map<File, File> files) {
+		List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>();
+		for(Map.Entry<File, File> entry : files.entrySet()) {
+			futures.add(copy(entry.getKey(), entry.getValue()));
+		}
+		return all(futures);
+	}
+
+	// --------
+	// - move -
+	// --------
+	/**
+	 * Moves a file or a directory.
+	 * @see FileUtils#move(File, File)
+	 */
+	public CompletableFuture<MoveStrategy> move(final File source, final File destination) {
+		return submit(destination, new Callable<MoveStrategy>() {
+			public MoveStrategy call() {
+				return FileUtils.move(source, destination);
+			}
+		});
+	}
+
+	/**
+	 * Moves every source file to its destination.
+	 * @param files a map from every source to its destination
+	 * @return a future that completes when all the files have been moved
+	 */
+	public CompletableFuture<Void> moveAll(Map<File, File> files) {
+		List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>();
+		for(Map.Entry<File, File> entry : files.entrySet()) {
+			futures.add(move(entry.getKey(), entry.getValue()));
+		}
+		return all(futures);
+	}
+
+	// ----------
+	// - delete -
+	// ----------
+	/**
+	 * Deletes a file or a directory.
+	 * @see FileUtils#delete(File)
+	 */
+	public CompletableFuture<Void> delete(final File file) {
+		return submit(file, new Callable<Void>() {
+			public Void call() {
+				FileUtils.delete(file);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Deletes every file.
+	 * @param files the files to delete
+	 * @return a future that completes when all the files have been deleted
+	 */
+	public CompletableFuture<Void> deleteAll(Collection<File> files) {
+		List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>();
+		for(File file : files) {
+			futures.add(delete(file));
+		}
+		return all(futures);
+	}
+
+	// ------------
+	// - download -
+	// ------------
+	/**
+	 * Downloads a file from a url to the destination file.
+	 * @see FileUtils#download(URL, File)
+	 */
+	public CompletableFuture<Void> download(final URL url, final File destination) {
+		return submit(destination, new Callable<Void>() {
+			public Void call() {
+				FileUtils.download(url, destination);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Downloads every url to its destination file.
+	 * @param files a map from every url to its destination
+	 * @return a future that completes when all the files have been downloaded
+	 */
+	public CompletableFuture<Void> downloadAll(Map<URL, File> files) {
+		List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>();
+		for(Map.Entry<URL, File> entry : files.entrySet()) {
+			futures.add(download(entry.getKey(), entry.getValue()));
+		}
+		return all(futures);
+	}
+
+	/**
+	 * Returns a future that completes when all the futures complete.
+	 * Cancelling it cancels all the futures.
+	 */
+	private static CompletableFuture<Void> all(final List<CompletableFuture<?>> futures) {
+		CompletableFuture<Void> result = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+		result.whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void value, Throwable error) {
+				if(error != null) {
+					for(CompletableFuture<?> future : futures) {
+						future.cancel(true);
+					}
+				}
+			}
+		});
+		return result;
+	}
+
+	private <T> CompletableFuture<T> submit(File file, Callable<T> operation) {
+		Task<T> task = new Task<T>(getDevice(file), operation);
+		task.future.whenComplete(task);
+		task.device.submit(task);
+		return task.future;
+	}
+
+	/**
+	 * Returns the device storing the file.
+	 */
+	private Device getDevice(File file) {
+		Object key;
+		try {
+			File existing = file.getAbsoluteFile();
+			while(existing != null && !existing.exists()) {
+				existing = existing.getParentFile();
+			}
+			key = existing != null ? Files.getFileStore(existing.toPath()) : file.getAbsoluteFile().toPath().getRoot();
+		} catch(IOException e) {
+			key = file.getAbsoluteFile().toPath().getRoot();
+		}
+
+		Device device = devices.get(key);
+		if(device == null) {
+			device = new Device();
+			Device previous = devices.putIfAbsent(key, device);
+			if(previous != null) device = previous;
+		}
+		return device;
+	}
+
+	/**
+	 * A storage device. Up to concurrencyPerDevice tasks of the device are given to the executor,
+	 * the others wait in its queue and are given to the executor when a running task ends.
+	 */
+	private class Device {
+
+		private final ArrayDeque<Task<?>> queue = new ArrayDeque<Task<?>>();
+		private int running = 0;
+
+		private void submit(Task<?> task) {
+			synchronized(this) {
+				if(running == concurrencyPerDevice) {
+					queue.add(task);
+					return;
+				}
+				running++;
+			}
+			execute(task);
+		}
+
+		/**
+		 * Called when a task ends: the next waiting task takes its place.
+		 */
+		private void release() {
+			Task<?> next = next();
+			if(next != null) execute(next);
+		}
+
+		/**
+		 * Returns the next waiting task that was not cancelled, or frees the place of the ended task.
+		 */
+		private synchronized Task<?> next() {
+			Task<?> next;
+			do {
+				next = queue.poll();
+			} while(next != null && next.future.isDone());
+
+			if(next == null) running--;
+			return next;
+		}
+
+		private void execute(Task<?> task) {
+			while(task != null) {
+				try {
+					executor.execute(task);
+					return;
+				} catch(RejectedExecutionException e) {
+					task.future.completeExceptionally(e);
+					task = next();
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Runs an operation, when its device has a free place, and completes its future.
+	 * If the future is cancelled while the operation is running, the thread running it is interrupted.
+	 */
+	private static class Task<T> implements Runnable, BiConsumer<T, Throwable> {
+
+		private final CompletableFuture<T> future = new CompletableFuture<T>();
+		private final Device device;
+		private final Callable<T> operation;
+
+		private Thread runner;
+
+		private Task(Device device, Callable<T> operation) {
+			this.device = device;
+			this.operation = operation;
+		}
+
+		public void run() {
+			try {
+				synchronized(this) {
+					if(future.isDone()) return;
+					runner = Thread.currentThread();
+				}
+
+				T result = null;
+				Throwable error = null;
+
+				FileUtils.beginCapture();
+				try {
+					result = operation.call();
+				} catch(Throwable e) {
+					error = e;
+				}
+				Exception failure = FileUtils.endCapture();
+				if(error == null) error = failure;
+
+				synchronized(this) {
+					runner = null;
+					// clear an interrupt sent by a cancellation, so it does not affect the next task
+					Thread.interrupted();
+				}
+
+				if(error != null) future.completeExceptionally(error);
+				else future.complete(result);
+			} finally {
+				device.release();
+			}
+		}
+
+		public synchronized void accept(T value, Throwable error) {
+			if(future.isCancelled() && runner != null) runner.interrupt();
+		}
+
+	}
+
+}
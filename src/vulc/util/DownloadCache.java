@@ -0,0 +1,371 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * DownloadCache is an on-disk cache for downloaded files.<br>
+ * Every request is revalidated with the server using the ETag and Last-Modified headers,
+ * so that the data is downloaded again only if it changed. When the cache grows over its maximum size,
+ * the least recently used files are removed.
+ * Concurrent requests for the same URL share a single download.
+ * An entry that is being revalidated or copied is pinned, so that it is not removed until it is released.
+ * @author Vulcalien
+ */
+public class DownloadCache {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File directory;
+	private final long maxSize;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long size = 0;
+
+	private final ConcurrentHashMap<String, CompletableFuture<Entry>> pending = new ConcurrentHashMap<String, CompletableFuture<Entry>>();
+
+	/**
+	 * Creates a cache storing its files in the directory.
+	 * The files already stored by a previous cache in the same directory are reused.
+	 * @param directory the directory of the cache
+	 * @param maxSize the maximum size of the cached files, in bytes
+	 */
+	public DownloadCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		directory.mkdirs();
+		loadEntries();
+	}
+
+	/**
+	 * Reads the entries stored in the directory, ordering them from the least recently used.
+	 */
+	private void loadEntries() {
+		File[] files = directory.listFiles();
+		if(files == null) return;
+
+		List<Entry> loaded = new ArrayList<Entry>();
+		for(int i = 0; i < files.length; i++) {
+			File file = files[i];
+			String name = file.getName();
+			if(name.endsWith(".tmp")) {
+				// left by a download that was interrupted
+				file.delete();
+				continue;
+			}
+			if(!name.endsWith(".properties")) continue;
+
+			String key = name.substring(0, name.length() - ".properties".length());
+			Entry entry = new Entry(key);
+			try(InputStream in = new FileInputStream(file)) {
+				entry.metadata.load(in);
+			} catch(IOException e) {
+				continue;
+			}
+			if(!entry.getDataFile().isFile()) {
+				file.delete();
+				continue;
+			}
+			entry.length = entry.getDataFile().length();
+			loaded.add(entry);
+		}
+
+		Entry[] sorted = loaded.toArray(new Entry[0]);
+		Arrays.sort(sorted, new Comparator<Entry>() {
+			public int compare(Entry e1, Entry e2) {
+				return Long.compare(e1.getDataFile().lastModified(), e2.getDataFile().lastModified());
+			}
+		});
+		synchronized(this) {
+			for(int i = 0; i < sorted.length; i++) {
+				entries.put(sorted[i].key, sorted[i]);
+				size += sorted[i].length;
+			}
+			evict();
+		}
+	}
+
+	/**
+	 * Downloads a file from a url to the destination file, using the cache.
+	 * @param url the URL referring to the data to download
+	 * @param destination the file that will store the downloaded data
+	 *
+	 * @throws IOException
+	 */
+	public void download(URL url, File destination) {
+		try {
+			Entry entry = acquire(url);
+			try {
+				Files.copy(entry.getDataFile().toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				release(entry);
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Downloads a file from a url to the destination file, using the cache.
+	 * @param url the URL referring to the data to download
+	 * @param destination the path of the destination file that will store the downloaded data
+	 *
+	 * @throws IOException
+	 */
+	public void download(URL url, String destination) {
+		download(url, new File(destination));
+	}
+
+	/**
+	 * Returns the cached file of the url, after revalidating it with the server.
+	 * If the file is not cached or it changed, it is downloaded.
+	 * The returned file must not be modified and may be removed when the cache is full.
+	 * @param url the URL referring to the data to download
+	 * @return the cached file
+	 *
+	 * @throws IOException if the data could not be downloaded
+	 */
+	public File get(URL url) throws IOException {
+		Entry entry = acquire(url);
+		release(entry);
+		return entry.getDataFile();
+	}
+
+	/**
+	 * Returns the pinned entry of the url, after revalidating it with the server.
+	 * The entry must be released when its data file is no longer used.
+	 */
+	private Entry acquire(URL url) throws IOException {
+		String key = getKey(url);
+
+		while(true) {
+			CompletableFuture<Entry> future = new CompletableFuture<Entry>();
+			CompletableFuture<Entry> running = pending.putIfAbsent(key, future);
+			if(running != null) {
+				// another thread is downloading the same url
+				Entry entry;
+				try {
+					entry = running.get();
+				} catch(ExecutionException e) {
+					Throwable cause = e.getCause();
+					if(cause instanceof IOException) throw (IOException) cause;
+					throw new IOException(cause);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+
+				// the entry may have been removed after the other thread released it
+				if(pin(entry)) return entry;
+				continue;
+			}
+
+			try {
+				Entry entry = fetch(url, key);
+				future.complete(entry);
+				return entry;
+			} catch(IOException | RuntimeException e) {
+				future.completeExceptionally(e);
+				throw e;
+			} finally {
+				pending.remove(key, future);
+			}
+		}
+	}
+
+	/**
+	 * Pins the entry if it is still in the cache.
+	 * @return false - if the entry was removed
+	 */
+	private synchronized boolean pin(Entry entry) {
+		if(entries.get(entry.key) != entry) return false;
+
+		entry.pins++;
+		return true;
+	}
+
+	/**
+	 * Releases a pinned entry. If it was kept over the maximum size, it is removed by the next eviction.
+	 */
+	private synchronized void release(Entry entry) {
+		entry.pins--;
+	}
+
+	/**
+	 * Returns the pinned entry of the key, downloading it if it is not cached or it changed.
+	 */
+	private Entry fetch(URL url, String key) throws IOException {
+		// the entry is pinned during the revalidation, so that a 304 response can still use it
+		Entry entry;
+		synchronized(this) {
+			entry = entries.get(key);
+			if(entry != null) entry.pins++;
+		}
+		try {
+			return fetch(url, key, entry);
+		} finally {
+			if(entry != null) release(entry);
+		}
+	}
+
+	private Entry fetch(URL url, String key, Entry entry) throws IOException {
+		URLConnection connection = url.openConnection();
+		HttpURLConnection http = connection instanceof HttpURLConnection ? (HttpURLConnection) connection : null;
+		try {
+			if(entry != null && http != null) {
+				String etag = entry.metadata.getProperty("etag");
+				String lastModified = entry.metadata.getProperty("lastModified");
+				if(etag != null) http.setRequestProperty("If-None-Match", etag);
+				if(lastModified != null) http.setRequestProperty("If-Modified-Since", lastModified);
+			}
+
+			if(http != null) {
+				int code = http.getResponseCode();
+				if(code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+					entry.getDataFile().setLastModified(System.currentTimeMillis());
+					synchronized(this) {
+						// a second pin, for the caller: the one of the revalidation is released by fetch
+						entry.pins++;
+					}
+					return entry;
+				}
+				if(code != HttpURLConnection.HTTP_OK)
+				    throw new IOException("Server returned HTTP response code: " + code + " for URL: " + url);
+			}
+
+			Entry newEntry = new Entry(key);
+			newEntry.metadata.setProperty("url", url.toString());
+			if(connection.getHeaderField("ETag") != null)
+			    newEntry.metadata.setProperty("etag", connection.getHeaderField("ETag"));
+			if(connection.getHeaderField("Last-Modified") != null)
+			    newEntry.metadata.setProperty("lastModified", connection.getHeaderField("Last-Modified"));
+
+			// the data is written to a temporary file, so that readers never see a partial file
+			File temp = File.createTempFile(key, ".tmp", directory);
+			try {
+				try(InputStream in = connection.getInputStream();
+				    OutputStream out = new FileOutputStream(temp)) {
+					byte[] buffer = new byte[BUFFER_SIZE];
+					int lengthRead;
+					while((lengthRead = in.read(buffer)) >= 0) {
+						out.write(buffer, 0, lengthRead);
+					}
+				}
+				newEntry.length = temp.length();
+
+				// the data is moved before the metadata is written: if the process stops in between,
+				// the old validators fail the next revalidation and the data is downloaded again
+				Files.move(temp.toPath(), newEntry.getDataFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+				try(OutputStream out = new FileOutputStream(newEntry.getMetadataFile())) {
+					newEntry.metadata.store(out, null);
+				}
+			} finally {
+				temp.delete();
+			}
+
+			synchronized(this) {
+				Entry old = entries.put(key, newEntry);
+				if(old != null) size -= old.length;
+				size += newEntry.length;
+				newEntry.pins++;
+				evict();
+			}
+			return newEntry;
+		} finally {
+			if(http != null) http.disconnect();
+		}
+	}
+
+	/**
+	 * Removes the least recently used entries until the size is not greater than the maximum.
+	 * Pinned entries are not removed. Must hold the lock.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while(size > maxSize && iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+			if(entry.pins > 0) continue;
+
+			iterator.remove();
+			size -= entry.length;
+			entry.getMetadataFile().delete();
+			entry.getDataFile().delete();
+		}
+	}
+
+	/**
+	 * @return the total size of the cached files, in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	private static String getKey(URL url) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(url.toString().getBytes(StandardCharsets.UTF_8));
+
+			StringBuilder result = new StringBuilder(hash.length * 2);
+			for(int i = 0; i < hash.length; i++) {
+				result.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+				result.append(Character.forDigit(hash[i] & 0xf, 16));
+			}
+			return result.toString();
+		} catch(NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private class Entry {
+
+		private final String key;
+		private final Properties metadata = new Properties();
+		private long length;
+
+		// the number of threads using the data file, guarded by the lock of the cache
+		private int pins = 0;
+
+		private Entry(String key) {
+			this.key = key;
+		}
+
+		private File getDataFile() {
+			return new File(directory, key + ".data");
+		}
+
+		private File getMetadataFile() {
+			return new File(directory, key + ".properties");
+		}
+
+	}
+
+}
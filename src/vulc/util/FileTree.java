@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FileTree is an immutable snapshot of a file or a directory tree.<br>
+ * The tree is read in a single walk that reads the attributes of every entry once,
+ * so that copy, move, delete and sync can reuse it instead of querying the file system again.
+ * By default, symbolic links are not followed: they are stored as entries of their own.
+ *
+ * <p>The entries are ordered so that every directory comes before its content.
+ * The snapshot is not updated if the file system changes after the scan.
+ * @author Vulcalien
+ */
+public final class FileTree {
+
+	private final File root;
+	private final boolean followLinks;
+	private final List<Entry> entries;
+	private final Map<String, Entry> entriesByPath;
+
+	private FileTree(File root, boolean followLinks, List<Entry> entries) {
+		this.root = root;
+		this.followLinks = followLinks;
+		this.entries = Collections.unmodifiableList(entries);
+
+		this.entriesByPath = new HashMap<String, Entry>(entries.size() * 2);
+		for(int i = 0; i < entries.size(); i++) {
+			Entry entry = entries.get(i);
+			entriesByPath.put(entry.path, entry);
+		}
+	}
+
+	/**
+	 * Reads a file or a directory tree, without following symbolic links.
+	 * @param root the file or directory to read
+	 * @return the snapshot of the tree
+	 *
+	 * @throws NoSuchFileException if the root does not exist
+	 * @throws IOException if the tree could not be read
+	 */
+	public static FileTree scan(File root) throws IOException {
+		return scan(root, false);
+	}
+
+	/**
+	 * Reads a file or a directory tree.<br>
+	 * If symbolic links are followed, the entries below a link have paths through the link
+	 * and the attributes of the files it points to. Links that are broken or that form a cycle
+	 * are stored as entries of their own.
+	 * @param root the file or directory to read
+	 * @param followLinks if true, symbolic links are followed
+	 * @return the snapshot of the tree
+	 *
+	 * @throws NoSuchFileException if the root does not exist
+	 * @throws IOException if the tree could not be read
+	 */
+	public static FileTree scan(File root, boolean followLinks) throws IOException {
+		root = root.getCanonicalFile();
+		final Path rootPath = root.toPath();
+		final List<Entry> entries = new ArrayList<Entry>();
+
+		Set<FileVisitOption> options = followLinks ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+		                                           : EnumSet.noneOf(FileVisitOption.class);
+		Files.walkFileTree(rootPath, options, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+				entries.add(new Entry(rootPath, dir, attributes));
+				return FileVisitResult.CONTINUE;
+			}
+
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+				entries.add(new Entry(rootPath, file, attributes));
+				return FileVisitResult.CONTINUE;
+			}
+
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				if(!(e instanceof FileSystemLoopException)) throw e;
+
+				// a link to one of its parents: store the link itself
+				entries.add(new Entry(rootPath, file, Files.readAttributes(file, BasicFileAttributes.class,
+				                                                           LinkOption.NOFOLLOW_LINKS)));
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return new FileTree(root, followLinks, entries);
+	}
+
+	/**
+	 * @return the canonical root of the tree
+	 */
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return true - if symbolic links were followed during the scan
+	 */
+	public boolean isFollowingLinks() {
+		return followLinks;
+	}
+
+	/**
+	 * @return the entry of the root
+	 */
+	public Entry getRootEntry() {
+		return entries.get(0);
+	}
+
+	/**
+	 * @return all the entries, every directory before its content
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @param path the path relative to the root, using '/' as separator
+	 * @return the entry or null if the tree does not contain it
+	 */
+	public Entry get(String path) {
+		return entriesByPath.get(path);
+	}
+
+	/**
+	 * @return the number of entries, including the root
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * An entry of the tree, storing the attributes read during the scan.
+	 */
+	public static final class Entry {
+
+		private final String path;
+		private final File file;
+		private final boolean directory;
+		private final boolean regularFile;
+		private final boolean symbolicLink;
+		private final long size;
+		private final long lastModified;
+
+		private Entry(Path root, Path file, BasicFileAttributes attributes) {
+			this.path = root.relativize(file).toString().replace(File.separatorChar, '/');
+			this.file = file.toFile();
+			this.directory = attributes.isDirectory();
+			this.regularFile = attributes.isRegularFile();
+			this.symbolicLink = attributes.isSymbolicLink();
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+		}
+
+		/**
+		 * @return the path relative to the root using '/' as separator, empty for the root
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return the file of this entry
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		public boolean isDirectory() {
+			return directory;
+		}
+
+		public boolean isFile() {
+			return regularFile;
+		}
+
+		public boolean isSymbolicLink() {
+			return symbolicLink;
+		}
+
+		/**
+		 * @return the size in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return the last modification time in milliseconds since the epoch
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+	}
+
+}
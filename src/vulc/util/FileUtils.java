@@ -13,13 +13,40 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import vulc.util.TransferListener.Operation;
 
 /**
  * FileUtils allows to perform some basic File operations:
  * <ul>
  * <li>copy</li>
  * <li>move</li>
+ * <li>sync</li>
+ * <li>snapshot</li>
  * <li>delete</li>
  * <li>download</li>
  * </ul>
@@ -27,35 +54,1294 @@ import java.nio.file.FileAlreadyExistsException;
  */
 public final class FileUtils {
 
+	/**
+	 * The strategy used to move a file or a directory.
+	 */
+	public enum MoveStrategy {
+		/** The source was renamed, no data was copied */
+		RENAME,
+		/** The source was copied to the destination and then deleted */
+		COPY
+	}
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static volatile TransferListener listener;
+	private static volatile long samplingInterval = 1024 * 1024;
+
+	/**
+	 * When set, failures of the current thread are stored here instead of being printed.
+	 */
+	private static final ThreadLocal<Exception[]> capturedFailure = new ThreadLocal<Exception[]>();
+
 	private FileUtils() {
 	}
 
-	private static void transferData(InputStream in, OutputStream out) {
-		try {
-			byte[] buffer = new byte[1024];
+	/**
+	 * Sets the listener that receives the progress of every operation.
+	 * When no listener is set, the operations do not measure anything.
+	 * @param listener the listener, or null to remove it
+	 */
+	public static void setListener(TransferListener listener) {
+		FileUtils.listener = listener;
+	}
+
+	/**
+	 * @return the listener that receives the progress of every operation, or null if there is none
+	 */
+	public static TransferListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Sets how often the listener is notified about transferred bytes.
+	 * A larger interval means fewer calls to the listener.
+	 * @param bytes the number of bytes to transfer between two notifications
+	 */
+	public static void setSamplingInterval(long bytes) {
+		samplingInterval = bytes;
+	}
+
+	/**
+	 * @return the number of bytes to transfer between two notifications of the listener
+	 */
+	public static long getSamplingInterval() {
+		return samplingInterval;
+	}
+
+	/**
+	 * Starts capturing the failures of the operations performed by the current thread.
+	 */
+	static void beginCapture() {
+		capturedFailure.set(new Exception[1]);
+	}
+
+	/**
+	 * Stops capturing the failures of the current thread.
+	 * @return the first failure, with the next ones added as suppressed, or null if nothing failed
+	 */
+	static Exception endCapture() {
+		Exception[] capture = capturedFailure.get();
+		capturedFailure.remove();
+		return capture != null ? capture[0] : null;
+	}
+
+	private static void fail(Operation operation, File file, Exception e) {
+		Exception[] capture = capturedFailure.get();
+		if(capture == null) {
+			e.printStackTrace();
+		} else if(capture[0] == null) {
+			capture[0] = e;
+		} else {
+			capture[0].addSuppressed(e);
+		}
+
+		TransferListener listener = FileUtils.listener;
+		if(listener != null) listener.failed(operation, file, e);
+	}
+
+	private static void complete(TransferListener listener, Operation operation,
+	                             File file, long bytes, long startTime) {
+		if(listener != null) listener.fileCompleted(operation, file, bytes, System.nanoTime() - startTime);
+	}
+
+	private static long transferData(InputStream in, OutputStream out, Operation operation) throws IOException {
+		return transferData(in, out, null, operation);
+	}
+
+	/**
+	 * Copies all the data from the input to the output, updating the digester if it is not null.
+	 * @return the number of bytes transferred
+	 */
+	private static long transferData(InputStream in, OutputStream out,
+	                                 Digester digester, Operation operation) throws IOException {
+		TransferListener listener = FileUtils.listener;
+		long interval = samplingInterval;
+
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long transferred = 0;
+		long unreported = 0;
+		int lengthRead;
+		while((lengthRead = in.read(buffer)) >= 0) {
+			if(digester != null) digester.update(buffer, lengthRead);
+			out.write(buffer, 0, lengthRead);
+			transferred += lengthRead;
+
+			if(listener != null && (unreported += lengthRead) >= interval) {
+				listener.bytesTransferred(operation, unreported);
+				unreported = 0;
+			}
+		}
+		out.flush();
+
+		if(listener != null && unreported != 0) listener.bytesTransferred(operation, unreported);
+		return transferred;
+	}
+
+	/**
+	 * Computes a digest of the data passing through a transfer loop.
+	 * "CRC32C" and "CRC32" are computed using a Checksum, any other algorithm using a MessageDigest.
+	 */
+	private static abstract class Digester {
+
+		private static Digester get(String algorithm) throws IOException {
+			if(algorithm.equalsIgnoreCase("CRC32C")) return new ChecksumDigester(new CRC32C());
+			if(algorithm.equalsIgnoreCase("CRC32")) return new ChecksumDigester(new CRC32());
+			try {
+				final MessageDigest digest = MessageDigest.getInstance(algorithm);
+				return new Digester() {
+					void update(byte[] buffer, int length) {
+						digest.update(buffer, 0, length);
+					}
+
+					byte[] digest() {
+						return digest.digest();
+					}
+				};
+			} catch(NoSuchAlgorithmException e) {
+				throw new IOException(e);
+			}
+		}
+
+		abstract void update(byte[] buffer, int length);
+
+		abstract byte[] digest();
+
+	}
+
+	private static class ChecksumDigester extends Digester {
+
+		private final Checksum checksum;
+
+		private ChecksumDigester(Checksum checksum) {
+			this.checksum = checksum;
+		}
+
+		void update(byte[] buffer, int length) {
+			checksum.update(buffer, 0, length);
+		}
+
+		byte[] digest() {
+			int value = (int) checksum.getValue();
+			return new byte[] {
+			    (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+			};
+		}
+
+	}
+
+	/**
+	 * Reads the whole file and returns its digest.
+	 */
+	private static byte[] digest(File file, String algorithm) throws IOException {
+		Digester digester = Digester.get(algorithm);
+		try(InputStream in = new FileInputStream(file)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
 			int lengthRead;
 			while((lengthRead = in.read(buffer)) >= 0) {
-				out.write(buffer, 0, lengthRead);
-				out.flush();
+				digester.update(buffer, lengthRead);
+			}
+		}
+		return digester.digest();
+	}
+
+	private static void verify(File file, byte[] digest, byte[] expected) throws IOException {
+		if(expected != null && !MessageDigest.isEqual(digest, expected))
+		    throw new IOException("Digest mismatch for file: " + file +
+		                          " expected: " + toHex(expected) + " found: " + toHex(digest));
+	}
+
+	private static final int SPARSE_BLOCK_SIZE = 4096;
+
+	/**
+	 * Copies a file mapping the source one window at a time and skipping the blocks filled with zeros.
+	 * @return the number of bytes copied, including the skipped ones
+	 */
+	private static long transferMapped(File source, File destination, int windowSize) throws IOException {
+		TransferListener listener = FileUtils.listener;
+		try(FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		    FileChannel out = FileChannel.open(destination.toPath(),
+		                                       StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		                                       StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SPARSE)) {
+			long size = in.size();
+			for(long windowStart = 0; windowStart < size; windowStart += windowSize) {
+				int length = (int) Math.min(windowSize, size - windowStart);
+				MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+
+				// write the runs of consecutive blocks that are not filled with zeros
+				int runStart = -1;
+				for(int block = 0; block < length; block += SPARSE_BLOCK_SIZE) {
+					int blockEnd = Math.min(block + SPARSE_BLOCK_SIZE, length);
+					if(isZero(window, block, blockEnd)) {
+						if(runStart >= 0) {
+							writeRun(out, window, runStart, block, windowStart);
+							runStart = -1;
+						}
+					} else if(runStart < 0) {
+						runStart = block;
+					}
+				}
+				if(runStart >= 0) writeRun(out, window, runStart, length, windowStart);
+
+				if(listener != null) listener.bytesTransferred(Operation.COPY, length);
+			}
+
+			// if the file ends with a hole, write the last byte to set the size
+			if(out.size() < size) out.write(ByteBuffer.allocate(1), size - 1);
+			return size;
+		}
+	}
+
+	private static boolean isZero(ByteBuffer buffer, int from, int to) {
+		int i = from;
+		for(; i + 8 <= to; i += 8) {
+			if(buffer.getLong(i) != 0) return false;
+		}
+		for(; i < to; i++) {
+			if(buffer.get(i) != 0) return false;
+		}
+		return true;
+	}
+
+	private static void writeRun(FileChannel out, ByteBuffer window, int from, int to,
+	                             long windowStart) throws IOException {
+		ByteBuffer run = window.duplicate();
+		run.limit(to).position(from);
+
+		long position = windowStart + from;
+		while(run.hasRemaining()) {
+			position += out.write(run, position);
+		}
+	}
+
+	/**
+	 * Copies the content of a file channel into another one using transferTo,
+	 * so that the copy can be performed by the kernel without passing through the heap.
+	 * If the channel cannot transfer the whole content, the remaining part is copied
+	 * using the stream loop.
+	 */
+	private static long transferData(FileInputStream in, FileOutputStream out,
+	                                 Operation operation) throws IOException {
+		TransferListener listener = FileUtils.listener;
+		FileChannel inChannel = in.getChannel();
+		FileChannel outChannel = out.getChannel();
+
+		long size = inChannel.size();
+		long position = 0;
+		try {
+			while(position < size) {
+				long transferred = inChannel.transferTo(position, size - position, outChannel);
+				if(transferred <= 0) break;
+				position += transferred;
+
+				if(listener != null) listener.bytesTransferred(operation, transferred);
+			}
+		} catch(IOException e) {
+			// the channels do not support transferTo, fall back to the stream loop
+		}
+
+		// the file may have grown or transferTo may have stopped early
+		inChannel.position(position);
+		outChannel.position(position);
+		return position + transferData((InputStream) in, (OutputStream) out, operation);
+	}
+
+	// --------
+	// - copy -
+	// --------
+	/**
+	 * Copies a file or a directory.
+	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.
+	 * @param source the file to copy
+	 * @param destination the path of the destination file
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 */
+	public static void copy(File source, File destination) {
+		copy(source, destination, 1);
+	}
+
+	/**
+	 * Copies a file or a directory.
+	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.<br>
+	 * If the source is a directory, all the directories are created first and then
+	 * the files are copied concurrently by a work-stealing pool.
+	 * @param source the file to copy
+	 * @param destination the path of the destination file
+	 * @param parallelism the number of files that can be copied at the same time
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 */
+	public static void copy(File source, File destination, int parallelism) {
+		try {
+			source = source.getCanonicalFile();
+			destination = destination.getCanonicalFile();
+
+			if(!source.exists()) throw new FileNotFoundException(source.toString());
+			if(source.equals(destination))
+			    throw new IOException("Source file: " + source + " equals destination file: " + destination);
+		} catch(IOException e) {
+			fail(Operation.COPY, source, e);
+			return;
+		}
+		try {
+			destination.getParentFile().mkdirs();
+		} catch(NullPointerException e) {
+			// in this case the parent's directory is a root
+		}
+
+		FileTree tree;
+		try {
+			tree = FileTree.scan(source);
+		} catch(IOException e) {
+			fail(Operation.COPY, source, e);
+			return;
+		}
+		copyTree(tree, destination, parallelism);
+	}
+
+	/**
+	 * Copies a file or a directory using a snapshot of the source, without reading the source attributes again.
+	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.
+	 * @param source the snapshot of the file to copy
+	 * @param destination the path of the destination file
+	 *
+	 * @throws IOException if the source file and the destination file are the same
+	 */
+	public static void copy(FileTree source, File destination) {
+		copy(source, destination, 1);
+	}
+
+	/**
+	 * Copies a file or a directory using a snapshot of the source, without reading the source attributes again.
+	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.<br>
+	 * If the source is a directory, all the directories are created first and then
+	 * the files are copied concurrently by a work-stealing pool.
+	 * @param source the snapshot of the file to copy
+	 * @param destination the path of the destination file
+	 * @param parallelism the number of files that can be copied at the same time
+	 *
+	 * @throws IOException if the source file and the destination file are the same
+	 */
+	public static void copy(FileTree source, File destination, int parallelism) {
+		try {
+			destination = destination.getCanonicalFile();
+
+			if(source.getRoot().equals(destination))
+			    throw new IOException("Source file: " + source.getRoot() + " equals destination file: " + destination);
+		} catch(IOException e) {
+			fail(Operation.COPY, source.getRoot(), e);
+			return;
+		}
+		try {
+			destination.getParentFile().mkdirs();
+		} catch(NullPointerException e) {
+			// in this case the parent's directory is a root
+		}
+
+		copyTree(source, destination, parallelism);
+	}
+
+	/**
+	 * Copies a file or a directory.
+	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.
+	 * @param source the path of the file to copy
+	 * @param destination the path of the destination file
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 */
+	public static void copy(String source, String destination) {
+		copy(new File(source), new File(destination));
+	}
+
+	/**
+	 * Copies a file or a directory.
+	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.<br>
+	 * If the source is a directory, all the directories are created first and then
+	 * the files are copied concurrently by a work-stealing pool.
+	 * @param source the path of the file to copy
+	 * @param destination the path of the destination file
+	 * @param parallelism the number of files that can be copied at the same time
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 */
+	public static void copy(String source, String destination, int parallelism) {
+		copy(new File(source), new File(destination), parallelism);
+	}
+
+	/**
+	 * Copies a file and computes the digest of its content in the same pass.
+	 * @param source the file to copy
+	 * @param destination the path of the destination file
+	 * @param algorithm the digest algorithm: "CRC32C", "CRC32" or any MessageDigest algorithm, such as "SHA-256"
+	 * @return the digest of the copied data or null if the file was not copied
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 * @throws IOException if the source is not a file
+	 */
+	public static byte[] copy(File source, File destination, String algorithm) {
+		return copy(source, destination, algorithm, null);
+	}
+
+	/**
+	 * Copies a file and computes the digest of its content in the same pass.
+	 * If the digest does not match the expected one, the destination file is deleted.
+	 * @param source the file to copy
+	 * @param destination the path of the destination file
+	 * @param algorithm the digest algorithm: "CRC32C", "CRC32" or any MessageDigest algorithm, such as "SHA-256"
+	 * @param expected the expected digest, or null to not verify it
+	 * @return the digest of the copied data or null if the file was not copied
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 * @throws IOException if the source is not a file
+	 * @throws IOException if the digest does not match the expected one
+	 */
+	public static byte[] copy(File source, File destination, String algorithm, byte[] expected) {
+		try {
+			source = source.getCanonicalFile();
+			destination = destination.getCanonicalFile();
+
+			if(!source.exists()) throw new FileNotFoundException(source.toString());
+			if(source.equals(destination))
+			    throw new IOException("Source file: " + source + " equals destination file: " + destination);
+			if(!source.isFile()) throw new IOException("Source is not a file: " + source);
+
+			try {
+				destination.getParentFile().mkdirs();
+			} catch(NullPointerException e) {
+				// in this case the parent's directory is a root
+			}
+			return copyFile(source, destination, algorithm, expected);
+		} catch(IOException e) {
+			fail(Operation.COPY, source, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Copies a large file by mapping it in memory one window at a time.
+	 * Blocks filled with zeros are not written, so they are left as holes in the destination
+	 * if the file system supports sparse files.
+	 * @param source the file to copy
+	 * @param destination the path of the destination file
+	 * @param windowSize the size, in bytes, of the mapped windows
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 * @throws IOException if the source is not a file
+	 * @throws IllegalArgumentException if the window size is not positive
+	 */
+	public static void copyLarge(File source, File destination, int windowSize) {
+		if(windowSize <= 0) throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+
+		TransferListener listener = FileUtils.listener;
+		long startTime = listener != null ? System.nanoTime() : 0;
+		try {
+			source = source.getCanonicalFile();
+			destination = destination.getCanonicalFile();
+
+			if(!source.exists()) throw new FileNotFoundException(source.toString());
+			if(source.equals(destination))
+			    throw new IOException("Source file: " + source + " equals destination file: " + destination);
+			if(!source.isFile()) throw new IOException("Source is not a file: " + source);
+
+			try {
+				destination.getParentFile().mkdirs();
+			} catch(NullPointerException e) {
+				// in this case the parent's directory is a root
+			}
+			long bytes = transferMapped(source, destination, windowSize);
+			complete(listener, Operation.COPY, source, bytes, startTime);
+		} catch(IOException e) {
+			fail(Operation.COPY, source, e);
+		}
+	}
+
+	/**
+	 * Copies a large file by mapping it in memory one window at a time.
+	 * Blocks filled with zeros are not written, so they are left as holes in the destination
+	 * if the file system supports sparse files.
+	 * @param source the path of the file to copy
+	 * @param destination the path of the destination file
+	 * @param windowSize the size, in bytes, of the mapped windows
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 * @throws IOException if the source is not a file
+	 * @throws IllegalArgumentException if the window size is not positive
+	 */
+	public static void copyLarge(String source, String destination, int windowSize) {
+		copyLarge(new File(source), new File(destination), windowSize);
+	}
+
+	/**
+	 * Copies a file or a directory.
+	 * In this case, the destination always is a directory and the source file or directory will be copied inside the destination directory.
+	 * @param source the file to copy
+	 * @param destination the destination directory
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the destination directory is the parent of the source file
+	 */
+	public static void copyToDirectory(File source, File destination) {
+		try {
+			source = source.getCanonicalFile();
+		} catch(IOException e) {
+			fail(Operation.COPY, source, e);
+			return;
+		}
+		copy(source, new File(destination + File.separator + source.getName()));
+	}
+
+	/**
+	 * Copies a file or a directory.
+	 * In this case, the destination always is a directory and the source file or directory will be copied inside the destination directory.
+	 * @param source the path of the file to copy
+	 * @param destination the path of the destination directory
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the destination directory is the parent of the source file
+	 */
+	public static void copyToDirectory(String source, String destination) {
+		copyToDirectory(new File(source), new File(destination));
+	}
+
+	/**
+	 * Creates all the directories of the tree and then copies the files.
+	 * Symbolic links are followed, as copy(File, File) does.
+	 * @return true - if everything was copied
+	 */
+	private static boolean copyTree(FileTree tree, File destination, int parallelism) {
+		return copyTree(tree, destination, parallelism, new ArrayList<Path>());
+	}
+
+	/**
+	 * @param ancestors the roots of the trees being copied through links, to detect cycles
+	 */
+	private static boolean copyTree(FileTree tree, File destination, int parallelism, List<Path> ancestors) {
+		ancestors.add(tree.getRoot().toPath());
+		boolean copied = true;
+		List<File[]> files = new ArrayList<File[]>();
+
+		List<FileTree.Entry> entries = tree.getEntries();
+		for(int i = 0; i < entries.size(); i++) {
+			FileTree.Entry entry = entries.get(i);
+			File target = getTreeFile(destination, entry);
+			if(entry.isDirectory()) {
+				target.mkdir();
+			} else if(entry.isFile()) {
+				files.add(new File[] {entry.getFile(), target});
+			} else if(entry.isSymbolicLink()) {
+				// a broken link has nothing to copy, it is skipped as it always was
+				if(!Files.exists(entry.getFile().toPath())) continue;
+
+				try {
+					// a link to a directory that is already being copied would be copied forever
+					Path linked = entry.getFile().getCanonicalFile().toPath();
+					for(int j = 0; j < ancestors.size(); j++) {
+						if(ancestors.get(j).startsWith(linked)) throw new FileSystemLoopException(entry.getFile().toString());
+					}
+
+					if(!copyTree(FileTree.scan(entry.getFile()), target, 1, ancestors)) copied = false;
+					ancestors.remove(ancestors.size() - 1);
+				} catch(IOException e) {
+					fail(Operation.COPY, entry.getFile(), e);
+					copied = false;
+				}
+			}
+		}
+
+		if(parallelism > 1 && files.size() > 1) {
+			AtomicBoolean failed = new AtomicBoolean();
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new CopyTask(files, 0, files.size(), failed));
+			} finally {
+				pool.shutdown();
+			}
+			if(failed.get()) copied = false;
+		} else {
+			for(int i = 0; i < files.size(); i++) {
+				File[] pair = files.get(i);
+				if(!copyFile(pair[0], pair[1])) copied = false;
+			}
+		}
+		return copied;
+	}
+
+	/**
+	 * Returns the file corresponding to the entry of a tree if the tree's root was the destination.
+	 */
+	private static File getTreeFile(File destination, FileTree.Entry entry) {
+		String path = entry.getPath();
+		if(path.isEmpty()) return destination;
+		return new File(destination, path);
+	}
+
+	/**
+	 * Copies a range of the (source, destination) pairs, splitting it while it is larger than the threshold.
+	 */
+	private static class CopyTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 4;
+
+		private final List<File[]> files;
+		private final int from, to;
+		private final AtomicBoolean failed;
+
+		private CopyTask(List<File[]> files, int from, int to, AtomicBoolean failed) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+			this.failed = failed;
+		}
+
+		protected void compute() {
+			if(to - from <= THRESHOLD) {
+				for(int i = from; i < to; i++) {
+					File[] pair = files.get(i);
+					if(!copyFile(pair[0], pair[1])) failed.set(true);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new CopyTask(files, from, middle, failed),
+				          new CopyTask(files, middle, to, failed));
+			}
+		}
+
+	}
+
+	/**
+	 * @return true - if the file was copied
+	 */
+	private static boolean copyFile(File source, File destination) {
+		TransferListener listener = FileUtils.listener;
+		long startTime = listener != null ? System.nanoTime() : 0;
+
+		long bytes;
+		try(FileInputStream in = new FileInputStream(source);
+		    FileOutputStream out = new FileOutputStream(destination)) {
+			bytes = transferData(in, out, Operation.COPY);
+		} catch(IOException e) {
+			fail(Operation.COPY, source, e);
+			return false;
+		}
+		complete(listener, Operation.COPY, source, bytes, startTime);
+		return true;
+	}
+
+	private static byte[] copyFile(File source, File destination,
+	                               String algorithm, byte[] expected) throws IOException {
+		TransferListener listener = FileUtils.listener;
+		long startTime = listener != null ? System.nanoTime() : 0;
+
+		Digester digester = Digester.get(algorithm);
+		long bytes;
+		try(InputStream in = new FileInputStream(source);
+		    OutputStream out = new FileOutputStream(destination)) {
+			bytes = transferData(in, out, digester, Operation.COPY);
+		}
+		complete(listener, Operation.COPY, source, bytes, startTime);
+
+		byte[] digest = digester.digest();
+		try {
+			verify(source, digest, expected);
+		} catch(IOException e) {
+			destination.delete();
+			throw e;
+		}
+		return digest;
+	}
+
+	// --------
+	// - move -
+	// --------
+	/**
+	 * Moves a file or a directory.<br>
+	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.
+	 * @param source the file to move
+	 * @param destination the destination file
+	 * @return the strategy used to move the file or null if the file was not moved
+	 *
+	 * @throws FileNotFoundException if the source file does not exist
+	 * @throws FileAlreadyExistsException if the destination file already exists
+	 * @throws IOException if the source file and the destination file are the same
+	 * @throws IOException if the destination is a subdirectory of the source
+	 */
+	public static MoveStrategy move(File source, File destination) {
+		TransferListener listener = FileUtils.listener;
+		long startTime = listener != null ? System.nanoTime() : 0;
+		try {
+			source = source.getCanonicalFile();
+			destination = destination.getCanonicalFile();
+
+			if(!source.exists()) throw new FileNotFoundException(source.toString());
+			if(source.equals(destination))
+			    throw new IOException("Source file: " + source + " equals destination file: " + destination);
+
+			if(source.isDirectory()) {
+				if(destination.exists()) throw new FileAlreadyExistsException(destination.toString());
+				if(destination.getPath().startsWith(source.getPath() + File.separator))
+				    throw new IOException("Cannot not move directory: " + source +
+				                          " to a subdirectory: " + destination);
+				MoveStrategy strategy = moveDirectory(source, destination);
+				complete(listener, Operation.MOVE, source, 0, startTime);
+				return strategy;
+			} else if(source.isFile()) {
+				MoveStrategy strategy = moveFile(source, destination);
+				complete(listener, Operation.MOVE, source, 0, startTime);
+				return strategy;
+			}
+		} catch(IOException e) {
+			fail(Operation.MOVE, source, e);
+		}
+		return null;
+	}
+
+	/**
+	 * Moves a file or a directory.<br>
+	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.
+	 * @param source the path of the file to move
+	 * @param destination the path of the destination file
+	 * @return the strategy used to move the file or null if the file was not moved
+	 *
+	 * @throws FileNotFoundException if the source file does not exist
+	 * @throws FileAlreadyExistsException if the destination file is a directory and it already exists
+	 * @throws IOException if the source file and the destination file are the same
+	 * @throws IOException if the destination is a subdirectory of the source
+	 */
+	public static MoveStrategy move(String source, String destination) {
+		return move(new File(source), new File(destination));
+	}
+
+	/**
+	 * Moves a file or a directory using a snapshot of the source.<br>
+	 * If the source cannot be renamed, the snapshot is used both to copy and to delete it,
+	 * without reading the source attributes again.
+	 * @param source the snapshot of the file to move
+	 * @param destination the destination file
+	 * @return the strategy used to move the file or null if the file was not moved
+	 *
+	 * @throws FileAlreadyExistsException if the destination file is a directory and it already exists
+	 * @throws IOException if the source file and the destination file are the same
+	 * @throws IOException if the destination is a subdirectory of the source
+	 */
+	public static MoveStrategy move(FileTree source, File destination) {
+		TransferListener listener = FileUtils.listener;
+		long startTime = listener != null ? System.nanoTime() : 0;
+
+		File root = source.getRoot();
+		try {
+			destination = destination.getCanonicalFile();
+
+			if(root.equals(destination))
+			    throw new IOException("Source file: " + root + " equals destination file: " + destination);
+
+			if(source.getRootEntry().isDirectory()) {
+				if(destination.exists()) throw new FileAlreadyExistsException(destination.toString());
+				if(destination.getPath().startsWith(root.getPath() + File.separator))
+				    throw new IOException("Cannot not move directory: " + root +
+				                          " to a subdirectory: " + destination);
+			}
+		} catch(IOException e) {
+			fail(Operation.MOVE, root, e);
+			return null;
+		}
+
+		MoveStrategy strategy;
+		if(rename(root, destination)) {
+			strategy = MoveStrategy.RENAME;
+		} else {
+			try {
+				destination.getParentFile().mkdirs();
+			} catch(NullPointerException e) {
+				// in this case the parent's directory is a root
+			}
+			if(!copyTree(source, destination, 1)) {
+				// the source is kept, the partial copy of a directory is removed
+				if(source.getRootEntry().isDirectory()) delete(destination);
+				fail(Operation.MOVE, root, new IOException("Could not copy: " + root + " to: " + destination));
+				return null;
+			}
+			deleteTree(source, 1);
+			strategy = MoveStrategy.COPY;
+		}
+		complete(listener, Operation.MOVE, root, 0, startTime);
+		return strategy;
+	}
+
+	/**
+	 * Moves a file and computes the digest of its content.
+	 * If the file has to be copied, the digest is computed in the same pass.
+	 * @param source the file to move
+	 * @param destination the destination file
+	 * @param algorithm the digest algorithm: "CRC32C", "CRC32" or any MessageDigest algorithm, such as "SHA-256"
+	 * @return the digest of the moved data or null if the file was not moved
+	 *
+	 * @throws FileNotFoundException if the source file does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 * @throws IOException if the source is not a file
+	 */
+	public static byte[] move(File source, File destination, String algorithm) {
+		return move(source, destination, algorithm, null);
+	}
+
+	/**
+	 * Moves a file and computes the digest of its content.
+	 * If the file has to be copied, the digest is computed in the same pass.
+	 * If the digest does not match the expected one, the source file is left where it was.
+	 * @param source the file to move
+	 * @param destination the destination file
+	 * @param algorithm the digest algorithm: "CRC32C", "CRC32" or any MessageDigest algorithm, such as "SHA-256"
+	 * @param expected the expected digest, or null to not verify it
+	 * @return the digest of the moved data or null if the file was not moved
+	 *
+	 * @throws FileNotFoundException if the source file does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 * @throws IOException if the source is not a file
+	 * @throws IOException if the digest does not match the expected one
+	 */
+	public static byte[] move(File source, File destination, String algorithm, byte[] expected) {
+		TransferListener listener = FileUtils.listener;
+		long startTime = listener != null ? System.nanoTime() : 0;
+		try {
+			source = source.getCanonicalFile();
+			destination = destination.getCanonicalFile();
+
+			if(!source.exists()) throw new FileNotFoundException(source.toString());
+			if(source.equals(destination))
+			    throw new IOException("Source file: " + source + " equals destination file: " + destination);
+			if(!source.isFile()) throw new IOException("Source is not a file: " + source);
+
+			if(rename(source, destination)) {
+				byte[] digest = digest(destination, algorithm);
+				try {
+					verify(source, digest, expected);
+				} catch(IOException e) {
+					destination.renameTo(source);
+					throw e;
+				}
+				complete(listener, Operation.MOVE, source, 0, startTime);
+				return digest;
+			}
+
+			byte[] digest = copyFile(source, destination, algorithm, expected);
+			delete(source);
+			complete(listener, Operation.MOVE, source, destination.length(), startTime);
+			return digest;
+		} catch(IOException e) {
+			fail(Operation.MOVE, source, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Moves a file or a directory.<br>
+	 * In this case, the destination always is a directory and the source file or directory will be moved inside the destination directory.
+	 * @param source the file to move
+	 * @param destination the destination directory
+	 * @return the strategy used to move the file or null if the file was not moved
+	 *
+	 * @throws FileNotFoundException if the source file does not exist
+	 * @throws FileAlreadyExistsException if a file with the same name of the source already exists in the destination directory
+	 * @throws IOException if the destination directory is the parent of the source file
+	 * @throws IOException if the source and the destination are the same or the destination is a subdirectory of the source
+	 */
+	public static MoveStrategy moveToDirectory(File source, File destination) {
+		try {
+			source = source.getCanonicalFile();
+		} catch(IOException e) {
+			fail(Operation.MOVE, source, e);
+			return null;
+		}
+		return move(source, new File(destination + File.separator + source.getName()));
+	}
+
+	/**
+	 * Moves a file or a directory.<br>
+	 * In this case, the destination always is a directory and the source file or directory will be moved inside the destination directory.
+	 * @param source the path of the file to move
+	 * @param destination the path of the destination directory
+	 * @return the strategy used to move the file or null if the file was not moved
+	 *
+	 * @throws FileNotFoundException if the source file does not exist
+	 * @throws FileAlreadyExistsException if a file with the same name of the source already exists in the destination directory
+	 * @throws IOException if the destination directory is the parent of the source file
+	 * @throws IOException if the source and the destination are the same or the destination is a subdirectory of the source
+	 */
+	public static MoveStrategy moveToDirectory(String source, String destination) {
+		return moveToDirectory(new File(source), new File(destination));
+	}
+
+	/**
+	 * Renames the directory or copies it and deletes the source. The source is deleted only if the copy succeeded.
+	 *
+	 * @throws IOException if the directory could not be copied
+	 */
+	private static MoveStrategy moveDirectory(File source, File destination) throws IOException {
+		if(rename(source, destination)) return MoveStrategy.RENAME;
+
+		FileTree tree = FileTree.scan(source);
+		if(!copyTree(tree, destination, 1)) {
+			// the destination did not exist, so the partial copy can be removed
+			delete(destination);
+			throw new IOException("Could not copy directory: " + source + " to: " + destination);
+		}
+		deleteTree(tree, 1);
+		return MoveStrategy.COPY;
+	}
+
+	/**
+	 * Renames the file or copies it and deletes the source. The source is deleted only if the copy succeeded.
+	 *
+	 * @throws IOException if the file could not be copied
+	 */
+	private static MoveStrategy moveFile(File source, File destination) throws IOException {
+		if(rename(source, destination)) return MoveStrategy.RENAME;
+
+		if(!copyFile(source, destination))
+		    throw new IOException("Could not copy file: " + source + " to: " + destination);
+		delete(source);
+		return MoveStrategy.COPY;
+	}
+
+	/**
+	 * Tries to move the source by renaming it.
+	 * This fails if the source and the destination are on different file systems.
+	 */
+	private static boolean rename(File source, File destination) {
+		try {
+			destination.getParentFile().mkdirs();
+		} catch(NullPointerException e) {
+			// in this case the parent's directory is a root
+		}
+		return source.renameTo(destination);
+	}
+
+	// --------
+	// - sync -
+	// --------
+	/**
+	 * Synchronizes the destination with the source, copying only the files that are new or changed.
+	 * A file is considered changed if its size or its last modification time differ from the source's.
+	 * @param source the file to synchronize
+	 * @param destination the path of the destination file
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 */
+	public static void sync(File source, File destination) {
+		sync(source, destination, false, false, null);
+	}
+
+	/**
+	 * Synchronizes the destination with the source, copying only the files that are new or changed.
+	 * A file is considered changed if its size or its last modification time differ from the source's.
+	 * @param source the path of the file to synchronize
+	 * @param destination the path of the destination file
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 */
+	public static void sync(String source, String destination) {
+		sync(new File(source), new File(destination));
+	}
+
+	/**
+	 * Synchronizes the destination with the source, copying only the files that are new or changed.
+	 * @param source the file to synchronize
+	 * @param destination the path of the destination file
+	 * @param compareContent if true, files with the same size are compared by their SHA-256 hash
+	 *                       instead of their last modification time
+	 * @param delete if true, the files in the destination that do not exist in the source are deleted
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 */
+	public static void sync(File source, File destination, boolean compareContent, boolean delete) {
+		sync(source, destination, compareContent, delete, null);
+	}
+
+	/**
+	 * Synchronizes the destination with the source, copying only the files that are new or changed.<br>
+	 * The manifest file records the size, the last modification time and the hash of every synchronized file,
+	 * so that files that did not change since the previous run are not hashed again.
+	 * @param source the file to synchronize
+	 * @param destination the path of the destination file
+	 * @param compareContent if true, files with the same size are compared by their SHA-256 hash
+	 *                       instead of their last modification time
+	 * @param delete if true, the files in the destination that do not exist in the source are deleted
+	 * @param manifest the file storing the manifest, or null to not use it
+	 *
+	 * @throws FileNotFoundException if the source does not exist
+	 * @throws IOException if the source file and the destination file are the same
+	 */
+	public static void sync(File source, File destination, boolean compareContent, boolean delete, File manifest) {
+		FileTree tree;
+		try {
+			source = source.getCanonicalFile();
+			if(!source.exists()) throw new FileNotFoundException(source.toString());
+
+			// links are followed, so that the content they point to is compared and synchronized like any other
+			tree = FileTree.scan(source, true);
+		} catch(IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		sync(tree, destination, compareContent, delete, manifest);
+	}
+
+	/**
+	 * Synchronizes the destination with a snapshot of the source, copying only the files that are new or changed.<br>
+	 * The attributes of the source are taken from the snapshot and the destination is read in a single walk.
+	 * The manifest file records the size, the last modification time and the hash of every synchronized file,
+	 * so that files that did not change since the previous run are not hashed again.
+	 * @param source the snapshot of the file to synchronize
+	 * @param destination the path of the destination file
+	 * @param compareContent if true, files with the same size are compared by their SHA-256 hash
+	 *                       instead of their last modification time
+	 * @param delete if true, the files in the destination that do not exist in the source are deleted
+	 * @param manifest the file storing the manifest, or null to not use it
+	 *
+	 * @throws IOException if the source file and the destination file are the same
+	 */
+	public static void sync(FileTree source, File destination, boolean compareContent, boolean delete, File manifest) {
+		FileTree target = null;
+		try {
+			destination = destination.getCanonicalFile();
+
+			if(source.getRoot().equals(destination))
+			    throw new IOException("Source file: " + source.getRoot() + " equals destination file: " + destination);
+
+			if(destination.exists()) target = FileTree.scan(destination);
+		} catch(IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		try {
+			destination.getParentFile().mkdirs();
+		} catch(NullPointerException e) {
+			// in this case the parent's directory is a root
+		}
+
+		SyncManifest oldManifest = null, newManifest = null;
+		if(manifest != null) {
+			oldManifest = new SyncManifest();
+			newManifest = new SyncManifest();
+			if(manifest.isFile()) try {
+				oldManifest.load(manifest);
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		try {
+			syncTree(source, target, destination, compareContent, delete, oldManifest, newManifest);
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+
+		if(manifest != null) try {
+			newManifest.store(manifest);
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void syncTree(FileTree source, FileTree target, File destination,
+	                             boolean compareContent, boolean delete,
+	                             SyncManifest oldManifest, SyncManifest newManifest) throws IOException {
+		List<FileTree.Entry> entries = source.getEntries();
+		for(int i = 0; i < entries.size(); i++) {
+			FileTree.Entry entry = entries.get(i);
+			File file = getTreeFile(destination, entry);
+			FileTree.Entry existing = target != null ? target.get(entry.getPath()) : null;
+
+			if(entry.isDirectory()) {
+				if(existing != null && !existing.isDirectory()) {
+					delete(file);
+					existing = null;
+				}
+				if(existing == null) file.mkdir();
+			} else if(entry.isFile()) {
+				String path = entry.getPath().isEmpty() ? entry.getFile().getName() : entry.getPath();
+				syncFile(entry, existing, file, path, compareContent, oldManifest, newManifest);
+			} else if(entry.isSymbolicLink() && !source.isFollowingLinks()) {
+				// a link that the source tree did not follow: its content is copied through it.
+				// In a tree that follows links, the remaining links are broken or form a cycle
+				copy(entry.getFile(), file);
+			}
+		}
+
+		if(delete && target != null) {
+			// going backwards, the content of every directory comes before the directory
+			List<FileTree.Entry> targetEntries = target.getEntries();
+			for(int i = targetEntries.size() - 1; i >= 0; i--) {
+				FileTree.Entry entry = targetEntries.get(i);
+				if(source.get(entry.getPath()) == null && !isBelowLink(source, entry.getPath())) {
+					delete(entry.getFile());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns true if one of the parents of the path is a symbolic link in the tree.
+	 * The content below such a link is not in the tree, so it must not be deleted from the destination.
+	 */
+	private static boolean isBelowLink(FileTree tree, String path) {
+		int separator;
+		while((separator = path.lastIndexOf('/')) >= 0) {
+			path = path.substring(0, separator);
+
+			FileTree.Entry parent = tree.get(path);
+			if(parent != null) return parent.isSymbolicLink();
+		}
+		return false;
+	}
+
+	private static void syncFile(FileTree.Entry source, FileTree.Entry existing, File destination, String path,
+	                             boolean compareContent,
+	                             SyncManifest oldManifest, SyncManifest newManifest) throws IOException {
+		long sourceLength = source.getSize();
+		long sourceModified = source.getLastModified();
+
+		String hash = null;
+		boolean changed;
+		if(existing == null) {
+			changed = true;
+		} else if(!existing.isFile()) {
+			delete(destination);
+			changed = true;
+		} else if(existing.getSize() != sourceLength) {
+			changed = true;
+		} else if(!compareContent) {
+			changed = existing.getLastModified() != sourceModified;
+		} else {
+			if(oldManifest != null) {
+				hash = oldManifest.getHash(path,
+				                           sourceLength, sourceModified,
+				                           existing.getSize(), existing.getLastModified());
+			}
+			if(hash == null) {
+				hash = hash(source.getFile());
+				changed = !hash.equals(hash(destination));
+			} else {
+				changed = false;
+			}
+		}
+
+		if(changed) {
+			// a partial copy must not get the source's time, or it would look up to date
+			if(!copyFile(source.getFile(), destination)) return;
+			destination.setLastModified(sourceModified);
+		}
+
+		if(newManifest != null && compareContent) {
+			if(hash == null) hash = hash(source.getFile());
+			if(changed) {
+				newManifest.put(path,
+				                sourceLength, sourceModified,
+				                destination.length(), destination.lastModified(),
+				                hash);
+			} else {
+				newManifest.put(path,
+				                sourceLength, sourceModified,
+				                existing.getSize(), existing.getLastModified(),
+				                hash);
+			}
+		}
+	}
+
+	/**
+	 * Returns the hexadecimal SHA-256 hash of the file.
+	 */
+	private static String hash(File file) throws IOException {
+		return toHex(digest(file, "SHA-256"));
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder result = new StringBuilder(bytes.length * 2);
+		for(int i = 0; i < bytes.length; i++) {
+			result.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+			result.append(Character.forDigit(bytes[i] & 0xf, 16));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * The manifest of a sync operation. For every file path relative to the source,
+	 * it stores the size and the last modification time of both the source and the destination file
+	 * and the hash of the content.
+	 */
+	private static class SyncManifest {
+
+		private final Properties entries = new Properties();
+
+		private void load(File file) throws IOException {
+			try(InputStream in = new FileInputStream(file)) {
+				entries.load(in);
+			}
+		}
+
+		private void store(File file) throws IOException {
+			try(OutputStream out = new FileOutputStream(file)) {
+				entries.store(out, "sync manifest");
 			}
-		} catch(IOException e) {
-			e.printStackTrace();
 		}
+
+		private String getHash(String path,
+		                       long sourceLength, long sourceModified,
+		                       long destinationLength, long destinationModified) {
+			String entry = entries.getProperty(path);
+			if(entry == null) return null;
+
+			String[] values = entry.split(" ");
+			if(values.length != 5
+			   || Long.parseLong(values[0]) != sourceLength
+			   || Long.parseLong(values[1]) != sourceModified
+			   || Long.parseLong(values[2]) != destinationLength
+			   || Long.parseLong(values[3]) != destinationModified) return null;
+			return values[4];
+		}
+
+		private void put(String path,
+		                 long sourceLength, long sourceModified,
+		                 long destinationLength, long destinationModified,
+		                 String hash) {
+			if(hash == null) return;
+			entries.setProperty(path, sourceLength + " " + sourceModified + " "
+			                          + destinationLength + " " + destinationModified + " "
+			                          + hash);
+		}
+
 	}
 
-	// --------
-	// - copy -
-	// --------
+	// ------------
+	// - snapshot -
+	// ------------
 	/**
-	 * Copies a file or a directory.
-	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.
-	 * @param source the file to copy
+	 * Copies a file or a directory into a content-addressed store and hard-links the destination files to it.
+	 * Files are identified by their size and their SHA-256 hash, so identical files are stored only once
+	 * and every snapshot after the first one only stores the files that changed.<br>
+	 * The store keeps an index of the hashes, so files that did not change since the previous snapshot are not hashed again.
+	 * The stored files are read-only, since every snapshot linked to them shares their content.
+	 * If a file cannot be linked, e.g. because the store is on a different file system, it is copied.
+	 * @param source the file to snapshot
 	 * @param destination the path of the destination file
+	 * @param store the directory of the content-addressed store
 	 *
 	 * @throws FileNotFoundException if the source does not exist
 	 * @throws IOException if the source file and the destination file are the same
 	 */
-	public static void copy(File source, File destination) {
+	public static void snapshot(File source, File destination, File store) {
 		try {
 			source = source.getCanonicalFile();
 			destination = destination.getCanonicalFile();
@@ -64,7 +1350,7 @@ public final class FileUtils {
 			if(source.equals(destination))
 			    throw new IOException("Source file: " + source + " equals destination file: " + destination);
 		} catch(IOException e) {
-			e.printStackTrace();
+			fail(Operation.COPY, source, e);
 			return;
 		}
 		try {
@@ -73,231 +1359,358 @@ public final class FileUtils {
 			// in this case the parent's directory is a root
 		}
 
-		if(source.isDirectory()) {
-			copyDirectory(source, destination);
-		} else if(source.isFile()) {
-			copyFile(source, destination);
+		File indexFile = new File(store, "index.properties");
+		HashIndex index = new HashIndex();
+		if(indexFile.isFile()) try {
+			index.load(indexFile);
+		} catch(IOException e) {
+			e.printStackTrace();
 		}
-	}
 
-	/**
-	 * Copies a file or a directory.
-	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.
-	 * @param source the path of the file to copy
-	 * @param destination the path of the destination file
-	 *
-	 * @throws FileNotFoundException if the source does not exist
-	 * @throws IOException if the source file and the destination file are the same
-	 */
-	public static void copy(String source, String destination) {
-		copy(new File(source), new File(destination));
-	}
+		try {
+			File objects = new File(store, "objects");
+			objects.mkdirs();
+
+			if(source.isDirectory()) {
+				snapshotDirectory(source, destination, objects, index);
+			} else if(source.isFile()) {
+				snapshotFile(source, destination, objects, index);
+			}
+		} catch(IOException e) {
+			fail(Operation.COPY, source, e);
+		}
 
-	/**
-	 * Copies a file or a directory.
-	 * In this case, the destination always is a directory and the source file or directory will be copied inside the destination directory.
-	 * @param source the file to copy
-	 * @param destination the destination directory
-	 *
-	 * @throws FileNotFoundException if the source does not exist
-	 * @throws IOException if the destination directory is the parent of the source file
-	 */
-	public static void copyToDirectory(File source, File destination) {
 		try {
-			source = source.getCanonicalFile();
+			index.store(indexFile);
 		} catch(IOException e) {
 			e.printStackTrace();
-			return;
 		}
-		copy(source, new File(destination + File.separator + source.getName()));
 	}
 
 	/**
-	 * Copies a file or a directory.
-	 * In this case, the destination always is a directory and the source file or directory will be copied inside the destination directory.
-	 * @param source the path of the file to copy
-	 * @param destination the path of the destination directory
+	 * Copies a file or a directory into a content-addressed store and hard-links the destination files to it.
+	 * Files are identified by their size and their SHA-256 hash, so identical files are stored only once
+	 * and every snapshot after the first one only stores the files that changed.<br>
+	 * The store keeps an index of the hashes, so files that did not change since the previous snapshot are not hashed again.
+	 * The stored files are read-only, since every snapshot linked to them shares their content.
+	 * If a file cannot be linked, e.g. because the store is on a different file system, it is copied.
+	 * @param source the path of the file to snapshot
+	 * @param destination the path of the destination file
+	 * @param store the path of the directory of the content-addressed store
 	 *
 	 * @throws FileNotFoundException if the source does not exist
-	 * @throws IOException if the destination directory is the parent of the source file
+	 * @throws IOException if the source file and the destination file are the same
 	 */
-	public static void copyToDirectory(String source, String destination) {
-		copyToDirectory(new File(source), new File(destination));
+	public static void snapshot(String source, String destination, String store) {
+		snapshot(new File(source), new File(destination), new File(store));
 	}
 
-	private static void copyDirectory(File source, File destination) {
+	private static void snapshotDirectory(File source, File destination,
+	                                      File objects, HashIndex index) throws IOException {
 		File[] files = source.listFiles();
 		destination.mkdir();
 		for(int i = 0; i < files.length; i++) {
 			File file = files[i];
 			File newDestination = new File(destination + File.separator + file.getName());
 			if(file.isDirectory()) {
-				copyDirectory(file, newDestination);
+				snapshotDirectory(file, newDestination, objects, index);
 			} else if(file.isFile()) {
-				copyFile(file, newDestination);
+				snapshotFile(file, newDestination, objects, index);
 			}
 		}
 	}
 
-	private static void copyFile(File source, File destination) {
-		try {
-			destination.createNewFile();
+	private static void snapshotFile(File source, File destination,
+	                                 File objects, HashIndex index) throws IOException {
+		long length = source.length();
+		long modified = source.lastModified();
+
+		String path = source.getPath();
+		String hash = index.getHash(path, length, modified);
+		File object = hash != null ? getObjectFile(objects, hash) : null;
+		if(object == null || !object.isFile() || object.length() != length) {
+			// the source is read once: the object is named by the digest of the bytes that were actually copied
+			File temp = File.createTempFile("object", ".tmp", objects);
+			try {
+				hash = toHex(copyFile(source, temp, "SHA-256", null));
+				object = getObjectFile(objects, hash);
+				object.getParentFile().mkdirs();
 
-			InputStream in = new FileInputStream(source);
-			OutputStream out = new FileOutputStream(destination);
+				temp.setReadOnly();
+				if(!temp.renameTo(object) && !(object.isFile() && object.length() == temp.length()))
+				    throw new IOException("Could not add file: " + source + " to the store: " + object);
+			} finally {
+				temp.delete();
+			}
 
-			transferData(in, out);
+			// if the source changed while it was copied, its current attributes do not match the hash
+			if(source.length() == length && source.lastModified() == modified) {
+				index.put(path, length, modified, hash);
+			}
+		}
 
-			in.close();
-			out.close();
-		} catch(IOException e) {
-			e.printStackTrace();
+		Path link = destination.toPath();
+		Files.deleteIfExists(link);
+		try {
+			Files.createLink(link, object.toPath());
+		} catch(IOException | UnsupportedOperationException e) {
+			if(!copyFile(object, destination))
+			    throw new IOException("Could not copy object: " + object + " to: " + destination);
+			destination.setWritable(true);
 		}
 	}
 
-	// --------
-	// - move -
-	// --------
+	private static File getObjectFile(File objects, String hash) {
+		return new File(objects, hash.substring(0, 2) + File.separator + hash);
+	}
+
 	/**
-	 * Moves a file or a directory.<br>
-	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.
-	 * @param source the file to move
-	 * @param destination the destination file
-	 *
-	 * @throws FileNotFoundException if the source file does not exist
-	 * @throws FileAlreadyExistsException if the destination file already exists
-	 * @throws IOException if the source file and the destination file are the same
-	 * @throws IOException if the destination is a subdirectory of the source
+	 * Maps file paths to the hash of their content,
+	 * together with the size and the last modification time the file had when it was hashed.
 	 */
-	public static void move(File source, File destination) {
-		try {
-			source = source.getCanonicalFile();
-			destination = destination.getCanonicalFile();
+	private static class HashIndex {
 
-			if(!source.exists()) throw new FileNotFoundException(source.toString());
-			if(source.equals(destination))
-			    throw new IOException("Source file: " + source + " equals destination file: " + destination);
+		private final Properties entries = new Properties();
 
-			if(source.isDirectory()) {
-				if(destination.exists()) throw new FileAlreadyExistsException(destination.toString());
-				if(destination.getPath().startsWith(source.getPath() + File.separator))
-				    throw new IOException("Cannot not move directory: " + source +
-				                          " to a subdirectory: " + destination);
-				moveDirectory(source, destination);
-			} else if(source.isFile()) {
-				moveFile(source, destination);
+		private void load(File file) throws IOException {
+			try(InputStream in = new FileInputStream(file)) {
+				entries.load(in);
 			}
-		} catch(IOException e) {
-			e.printStackTrace();
 		}
+
+		private void store(File file) throws IOException {
+			try(OutputStream out = new FileOutputStream(file)) {
+				entries.store(out, "hash index");
+			}
+		}
+
+		private String getHash(String path, long length, long modified) {
+			String entry = entries.getProperty(path);
+			if(entry == null) return null;
+
+			String[] values = entry.split(" ");
+			if(values.length != 3
+			   || Long.parseLong(values[0]) != length
+			   || Long.parseLong(values[1]) != modified) return null;
+			return values[2];
+		}
+
+		private void put(String path, long length, long modified, String hash) {
+			entries.setProperty(path, length + " " + modified + " " + hash);
+		}
+
 	}
 
+	// ----------
+	// - delete -
+	// ----------
 	/**
-	 * Moves a file or a directory.<br>
-	 * In this case, the destination is a file if the source is a file or it is a directory if the source is a directory.
-	 * @param source the path of the file to move
-	 * @param destination the path of the destination file
+	 * Deletes a file or a directory.
+	 * @param file the file to delete
 	 *
-	 * @throws FileNotFoundException if the source file does not exist
-	 * @throws FileAlreadyExistsException if the destination file is a directory and it already exists
-	 * @throws IOException if the source file and the destination file are the same
-	 * @throws IOException if the destination is a subdirectory of the source
+	 * @throws RuntimeException if the file still exists
 	 */
-	public static void move(String source, String destination) {
-		move(new File(source), new File(destination));
+	public static void delete(File file) {
+		delete(file, 1);
 	}
 
 	/**
-	 * Moves a file or a directory.<br>
-	 * In this case, the destination always is a directory and the source file or directory will be moved inside the destination directory.
-	 * @param source the file to move
-	 * @param destination the destination directory
+	 * Deletes a file or a directory.
+	 * @param file the path of the file to delete
 	 *
-	 * @throws FileNotFoundException if the source file does not exist
-	 * @throws FileAlreadyExistsException if a file with the same name of the source already exists in the destination directory
-	 * @throws IOException if the destination directory is the parent of the source file
-	 * @throws IOException if the source and the destination are the same or the destination is a subdirectory of the source
+	 * @throws RuntimeException if the file still exists
+	 */
+	public static void delete(String file) {
+		delete(new File(file));
+	}
+
+	/**
+	 * Deletes a file or a directory.<br>
+	 * If the file is a directory and parallelism is greater than 1,
+	 * all the files in the tree are deleted concurrently and then the directories are deleted bottom-up.
+	 * @param file the file to delete
+	 * @param parallelism the number of files that can be deleted at the same time
+	 *
+	 * @throws RuntimeException if the file still exists
 	 */
-	public static void moveToDirectory(File source, File destination) {
+	public static void delete(File file, int parallelism) {
+		Path path = file.toPath();
+		BasicFileAttributes attributes;
 		try {
-			source = source.getCanonicalFile();
-		} catch(IOException e) {
-			e.printStackTrace();
+			attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch(NoSuchFileException e) {
 			return;
+		} catch(IOException e) {
+			fail(Operation.DELETE, file, e);
+			throw new RuntimeException("Could not delete file: " + file, e);
+		}
+
+		if(attributes.isDirectory()) {
+			if(parallelism > 1) {
+				FileTree tree;
+				try {
+					tree = FileTree.scan(file);
+				} catch(IOException e) {
+					fail(Operation.DELETE, file, e);
+					throw new RuntimeException("Could not delete directory: " + file, e);
+				}
+				deleteTree(tree, parallelism);
+			} else {
+				deleteDirectory(path);
+			}
+		} else {
+			deleteFile(path);
 		}
-		move(source, new File(destination + File.separator + source.getName()));
 	}
 
 	/**
-	 * Moves a file or a directory.<br>
-	 * In this case, the destination always is a directory and the source file or directory will be moved inside the destination directory.
-	 * @param source the path of the file to move
-	 * @param destination the path of the destination directory
+	 * Deletes a file or a directory.<br>
+	 * If the file is a directory and parallelism is greater than 1,
+	 * all the files in the tree are deleted concurrently and then the directories are deleted bottom-up.
+	 * @param file the path of the file to delete
+	 * @param parallelism the number of files that can be deleted at the same time
 	 *
-	 * @throws FileNotFoundException if the source file does not exist
-	 * @throws FileAlreadyExistsException if a file with the same name of the source already exists in the destination directory
-	 * @throws IOException if the destination directory is the parent of the source file
-	 * @throws IOException if the source and the destination are the same or the destination is a subdirectory of the source
+	 * @throws RuntimeException if the file still exists
 	 */
-	public static void moveToDirectory(String source, String destination) {
-		moveToDirectory(new File(source), new File(destination));
+	public static void delete(String file, int parallelism) {
+		delete(new File(file), parallelism);
 	}
 
-	private static void moveDirectory(File source, File destination) {
-		copy(source, destination);
-		delete(source);
-	}
+	private static void deleteDirectory(Path directory) {
+		try {
+			Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+					deleteFile(file);
+					return FileVisitResult.CONTINUE;
+				}
 
-	private static void moveFile(File source, File destination) {
-		copy(source, destination);
-		delete(source);
+				public FileVisitResult postVisitDirectory(Path dir, IOException exception) throws IOException {
+					if(exception != null) throw exception;
+					deleteFile(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch(IOException e) {
+			fail(Operation.DELETE, directory.toFile(), e);
+			throw new RuntimeException("Could not delete directory: " + directory, e);
+		}
 	}
 
-	// ----------
-	// - delete -
-	// ----------
 	/**
-	 * Deletes a file or a directory.
-	 * @param file the file to delete
+	 * Deletes a file or a directory using a snapshot of it, without reading its attributes again.
+	 * If the snapshot followed symbolic links, the tree is read again without following them,
+	 * so that only the links are deleted and not the files they point to.
+	 * @param tree the snapshot of the file to delete
 	 *
-	 * @throws RuntimeException if the file still exists
+	 * @throws RuntimeException if a file still exists
 	 */
-	public static void delete(File file) {
-		if(!file.exists()) return;
-		if(file.isDirectory()) {
-			deleteDirectory(file);
-		} else if(file.isFile()) {
-			deleteFile(file);
-		}
+	public static void delete(FileTree tree) {
+		deleteTree(tree, 1);
 	}
 
 	/**
-	 * Deletes a file or a directory.
-	 * @param file the path of the file to delete
+	 * Deletes a file or a directory using a snapshot of it, without reading its attributes again.<br>
+	 * If parallelism is greater than 1, all the files in the tree are deleted concurrently
+	 * and then the directories are deleted bottom-up.
+	 * If the snapshot followed symbolic links, the tree is read again without following them,
+	 * so that only the links are deleted and not the files they point to.
+	 * @param tree the snapshot of the file to delete
+	 * @param parallelism the number of files that can be deleted at the same time
 	 *
-	 * @throws RuntimeException if the file still exists
+	 * @throws RuntimeException if a file still exists
 	 */
-	public static void delete(String file) {
-		delete(new File(file));
+	public static void delete(FileTree tree, int parallelism) {
+		deleteTree(tree, parallelism);
 	}
 
-	private static void deleteDirectory(File file) {
-		File[] files = file.listFiles();
-		for(int i = 0; i < files.length; i++) {
-			File selected = files[i];
-			if(selected.isDirectory()) {
-				deleteDirectory(selected);
-			} else if(selected.isFile()) {
-				deleteFile(selected);
+	private static void deleteTree(FileTree tree, int parallelism) {
+		if(tree.isFollowingLinks()) {
+			// the entries below a followed link are outside the tree: only the link itself is deleted
+			try {
+				tree = FileTree.scan(tree.getRoot(), false);
+			} catch(NoSuchFileException e) {
+				return;
+			} catch(IOException e) {
+				fail(Operation.DELETE, tree.getRoot(), e);
+				throw new RuntimeException("Could not read directory: " + tree.getRoot(), e);
+			}
+		}
+
+		List<Path> files = new ArrayList<Path>();
+		List<Path> directories = new ArrayList<Path>();
+
+		// going backwards, the content of every directory comes before the directory
+		List<FileTree.Entry> entries = tree.getEntries();
+		for(int i = entries.size() - 1; i >= 0; i--) {
+			FileTree.Entry entry = entries.get(i);
+			if(entry.isDirectory()) {
+				directories.add(entry.getFile().toPath());
+			} else {
+				files.add(entry.getFile().toPath());
+			}
+		}
+
+		if(parallelism > 1 && files.size() > 1) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new DeleteTask(files, 0, files.size()));
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			for(int i = 0; i < files.size(); i++) {
+				deleteFile(files.get(i));
+			}
+		}
+
+		for(int i = 0; i < directories.size(); i++) {
+			deleteFile(directories.get(i));
+		}
+	}
+
+	/**
+	 * Deletes a range of the files, splitting it while it is larger than the threshold.
+	 */
+	private static class DeleteTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 64;
+
+		private final List<Path> files;
+		private final int from, to;
+
+		private DeleteTask(List<Path> files, int from, int to) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if(to - from <= THRESHOLD) {
+				for(int i = from; i < to; i++) {
+					deleteFile(files.get(i));
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new DeleteTask(files, from, middle),
+				          new DeleteTask(files, middle, to));
 			}
 		}
-		file.delete();
-		if(file.exists()) throw new RuntimeException("Could not delete directory: " + file);
+
 	}
 
-	private static void deleteFile(File file) {
-		file.delete();
-		if(file.exists()) throw new RuntimeException("Could not delete file: " + file);
+	private static void deleteFile(Path file) {
+		TransferListener listener = FileUtils.listener;
+		long startTime = listener != null ? System.nanoTime() : 0;
+		try {
+			Files.delete(file);
+		} catch(NoSuchFileException e) {
+			// the file was already deleted
+		} catch(IOException e) {
+			fail(Operation.DELETE, file.toFile(), e);
+			throw new RuntimeException("Could not delete file: " + file, e);
+		}
+		if(listener != null) complete(listener, Operation.DELETE, file.toFile(), 0, startTime);
 	}
 
 	// ------------
@@ -311,19 +1724,18 @@ public final class FileUtils {
 	 * @throws IOException
 	 */
 	public static void download(URL url, File destination) {
-		try {
-			destination.createNewFile();
-
-			InputStream in = url.openStream();
-			OutputStream out = new FileOutputStream(destination);
+		TransferListener listener = FileUtils.listener;
+		long startTime = listener != null ? System.nanoTime() : 0;
 
-			transferData(in, out);
-
-			in.close();
-			out.close();
+		long bytes;
+		try(InputStream in = url.openStream();
+		    OutputStream out = new FileOutputStream(destination)) {
+			bytes = transferData(in, out, Operation.DOWNLOAD);
 		} catch(IOException e) {
-			e.printStackTrace();
+			fail(Operation.DOWNLOAD, destination, e);
+			return;
 		}
+		complete(listener, Operation.DOWNLOAD, destination, bytes, startTime);
 	}
 
 	/**
@@ -349,7 +1761,7 @@ public final class FileUtils {
 		try {
 			download(new URL(url), destination);
 		} catch(MalformedURLException e) {
-			e.printStackTrace();
+			fail(Operation.DOWNLOAD, destination, e);
 		}
 	}
 
@@ -364,4 +1776,102 @@ public final class FileUtils {
 		download(url, new File(destination));
 	}
 
+	/**
+	 * Downloads a file from a url to the destination file and computes the digest of the data in the same pass.
+	 * @param url the URL referring to the data to download
+	 * @param destination the file that will store the downloaded data
+	 * @param algorithm the digest algorithm: "CRC32C", "CRC32" or any MessageDigest algorithm, such as "SHA-256"
+	 * @return the digest of the downloaded data or null if the file was not downloaded
+	 *
+	 * @throws IOException
+	 */
+	public static byte[] download(URL url, File destination, String algorithm) {
+		return download(url, destination, algorithm, null);
+	}
+
+	/**
+	 * Downloads a file from a url to the destination file and computes the digest of the data in the same pass.
+	 * If the digest does not match the expected one, the destination file is deleted.
+	 * @param url the URL referring to the data to download
+	 * @param destination the file that will store the downloaded data
+	 * @param algorithm the digest algorithm: "CRC32C", "CRC32" or any MessageDigest algorithm, such as "SHA-256"
+	 * @param expected the expected digest, or null to not verify it
+	 * @return the digest of the downloaded data or null if the file was not downloaded
+	 *
+	 * @throws IOException if the data could not be downloaded
+	 * @throws IOException if the digest does not match the expected one
+	 */
+	public static byte[] download(URL url, File destination, String algorithm, byte[] expected) {
+		TransferListener listener = FileUtils.listener;
+		long startTime = listener != null ? System.nanoTime() : 0;
+		try {
+			Digester digester = Digester.get(algorithm);
+			long bytes;
+			try(InputStream in = url.openStream();
+			    OutputStream out = new FileOutputStream(destination)) {
+				bytes = transferData(in, out, digester, Operation.DOWNLOAD);
+			}
+			complete(listener, Operation.DOWNLOAD, destination, bytes, startTime);
+
+			byte[] digest = digester.digest();
+			try {
+				verify(destination, digest, expected);
+			} catch(IOException e) {
+				destination.delete();
+				throw e;
+			}
+			return digest;
+		} catch(IOException e) {
+			fail(Operation.DOWNLOAD, destination, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Downloads a file from a url to the destination file, fetching several segments in parallel.<br>
+	 * The progress is stored in a file named as the destination followed by ".progress",
+	 * so that an interrupted download is resumed where it stopped.
+	 * If the server does not support range requests, the file is downloaded using a single stream.
+	 * @param url the URL referring to the data to download
+	 * @param destination the file that will store the downloaded data
+	 * @param segments the number of segments to download in parallel
+	 *
+	 * @throws IOException
+	 */
+	public static void download(URL url, File destination, int segments) {
+		TransferListener listener = FileUtils.listener;
+		long startTime = listener != null ? System.nanoTime() : 0;
+
+		if(segments > 1) try {
+			if(new SegmentedDownload(url, destination, segments).download()) {
+				complete(listener, Operation.DOWNLOAD, destination, destination.length(), startTime);
+				return;
+			}
+		} catch(IOException e) {
+			fail(Operation.DOWNLOAD, destination, e);
+			return;
+		}
+		download(url, destination);
+	}
+
+	/**
+	 * Downloads a file from a url to the destination file, fetching several segments in parallel.<br>
+	 * The progress is stored in a file named as the destination followed by ".progress",
+	 * so that an interrupted download is resumed where it stopped.
+	 * If the server does not support range requests, the file is downloaded using a single stream.
+	 * @param url the URL referring to the data to download
+	 * @param destination the path of the destination file that will store the downloaded data
+	 * @param segments the number of segments to download in parallel
+	 *
+	 * @throws MalformedURLException
+	 * @throws IOException
+	 */
+	public static void download(String url, String destination, int segments) {
+		try {
+			download(new URL(url), new File(destination), segments);
+		} catch(MalformedURLException e) {
+			fail(Operation.DOWNLOAD, new File(destination), e);
+		}
+	}
+
 }
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2019-2020 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * InputActions maps named actions to keys, chords and combos of InputHandler.Key.<br>
+ * A chord is a set of keys that must be down together, a combo is a sequence of key presses,
+ * each within a maximum number of ticks from the previous one.
+ * An action is active if any of its bindings is active.
+ *
+ * <p>The bindings are compiled into bit masks over the keys they use and combos into small state
+ * machines. All of them are evaluated once in tick(), that must be called after InputHandler.tick(),
+ * so that querying an action costs the same no matter how many bindings exist.
+ * @author Vulcalien
+ */
+public class InputActions {
+
+	private final HashMap<String, Action> actionsByName = new HashMap<String, Action>();
+	private final List<Action> actions = new ArrayList<Action>();
+	private final List<Binding> bindings = new ArrayList<Binding>();
+
+	// the distinct keys used by the bindings, a key's index is its bit in the masks
+	private final List<InputHandler.Key> keys = new ArrayList<InputHandler.Key>();
+	private final IdentityHashMap<InputHandler.Key, Integer> keyIndexes = new IdentityHashMap<InputHandler.Key, Integer>();
+
+	private long[] downBits = new long[0];
+	private long[] pressedBits = new long[0];
+
+	private boolean compiled = true;
+	private long tickCount = 0;
+
+	/**
+	 * Returns the action with the name, creating it if it does not exist.
+	 * @param name the name of the action
+	 * @return the action
+	 */
+	public Action get(String name) {
+		Action action = actionsByName.get(name);
+		if(action == null) {
+			action = new Action(name);
+			actionsByName.put(name, action);
+			actions.add(action);
+		}
+		return action;
+	}
+
+	/**
+	 * Evaluates all the bindings and updates the actions.
+	 * This method should be called after InputHandler.tick() and before any action is queried.
+	 */
+	public void tick() {
+		if(!compiled) compile();
+		tickCount++;
+
+		for(int i = 0; i < downBits.length; i++) {
+			downBits[i] = 0;
+			pressedBits[i] = 0;
+		}
+		for(int i = 0; i < keys.size(); i++) {
+			InputHandler.Key key = keys.get(i);
+			if(key.down()) downBits[i >>> 6] |= 1L << i;
+			if(key.pressed()) pressedBits[i >>> 6] |= 1L << i;
+		}
+
+		for(int i = 0; i < bindings.size(); i++) {
+			bindings.get(i).evaluate();
+		}
+		for(int i = 0; i < actions.size(); i++) {
+			actions.get(i).update();
+		}
+	}
+
+	private int indexOf(InputHandler.Key key) {
+		Integer index = keyIndexes.get(key);
+		if(index == null) {
+			index = keys.size();
+			keys.add(key);
+			keyIndexes.put(key, index);
+			compiled = false;
+		}
+		return index;
+	}
+
+	/**
+	 * Resizes the bit sets and rebuilds the masks after keys were added.
+	 */
+	private void compile() {
+		int words = (keys.size() + 63) >>> 6;
+		downBits = new long[words];
+		pressedBits = new long[words];
+
+		for(int i = 0; i < bindings.size(); i++) {
+			bindings.get(i).compile(words);
+		}
+		compiled = true;
+	}
+
+	private abstract class Binding {
+
+		/** True if the binding is active in the current tick */
+		protected boolean active = false;
+
+		protected abstract void compile(int words);
+
+		protected abstract void evaluate();
+
+	}
+
+	/**
+	 * Active while all the keys are down.
+	 */
+	private class Chord extends Binding {
+
+		private final int[] keyIndexes;
+		private long[] mask;
+
+		private Chord(int[] keyIndexes) {
+			this.keyIndexes = keyIndexes;
+		}
+
+		protected void compile(int words) {
+			mask = new long[words];
+			for(int i = 0; i < keyIndexes.length; i++) {
+				mask[keyIndexes[i] >>> 6] |= 1L << keyIndexes[i];
+			}
+		}
+
+		protected void evaluate() {
+			for(int i = 0; i < mask.length; i++) {
+				if((downBits[i] & mask[i]) != mask[i]) {
+					active = false;
+					return;
+				}
+			}
+			active = true;
+		}
+
+	}
+
+	/**
+	 * Active for one tick when the keys are pressed in order. A state machine whose state
+	 * is the number of keys already pressed: it advances when the next key is pressed,
+	 * and goes back to the start when another key of the combo is pressed or when it times out.
+	 */
+	private class Combo extends Binding {
+
+		private final int[] keyIndexes;
+		private final int maxTicks;
+		private long[] mask;
+
+		private int step = 0;
+		private long lastStepTick;
+
+		private Combo(int[] keyIndexes, int maxTicks) {
+			this.keyIndexes = keyIndexes;
+			this.maxTicks = maxTicks;
+		}
+
+		protected void compile(int words) {
+			mask = new long[words];
+			for(int i = 0; i < keyIndexes.length; i++) {
+				mask[keyIndexes[i] >>> 6] |= 1L << keyIndexes[i];
+			}
+		}
+
+		protected void evaluate() {
+			active = false;
+			if(step != 0 && tickCount - lastStepTick > maxTicks) step = 0;
+
+			boolean anyPressed = false;
+			for(int i = 0; i < mask.length; i++) {
+				if((pressedBits[i] & mask[i]) != 0) {
+					anyPressed = true;
+					break;
+				}
+			}
+			if(!anyPressed) return;
+
+			if(!isPressed(keyIndexes[step])) {
+				// a wrong key was pressed: the combo may start again from this key
+				step = 0;
+				if(!isPressed(keyIndexes[0])) return;
+			}
+
+			step++;
+			lastStepTick = tickCount;
+			if(step == keyIndexes.length) {
+				active = true;
+				step = 0;
+			}
+		}
+
+		private boolean isPressed(int keyIndex) {
+			return (pressedBits[keyIndex >>> 6] & 1L << keyIndex) != 0;
+		}
+
+	}
+
+	/**
+	 * A named action bound to keys, chords and combos.
+	 */
+	public final class Action {
+
+		private final String name;
+		private final List<Binding> bindings = new ArrayList<Binding>();
+
+		private boolean isDown = false;
+		private boolean wasDown = false;
+
+		private Action(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Binds a key to the action.
+		 * @param key the key
+		 * @return this action
+		 */
+		public Action bind(InputHandler.Key key) {
+			return bindChord(key);
+		}
+
+		/**
+		 * Binds a chord to the action: the action is down while all the keys are down.
+		 * @param keys the keys of the chord
+		 * @return this action
+		 */
+		public Action bindChord(InputHandler.Key... keys) {
+			if(keys.length == 0) throw new IllegalArgumentException("A chord needs at least one key");
+
+			int[] indexes = new int[keys.length];
+			for(int i = 0; i < keys.length; i++) {
+				indexes[i] = indexOf(keys[i]);
+			}
+			addBinding(new Chord(indexes));
+			return this;
+		}
+
+		/**
+		 * Binds a combo to the action: the action is pressed, for one tick,
+		 * when the keys are pressed in order.
+		 * @param maxTicks the maximum number of ticks between two presses
+		 * @param keys the keys of the combo, in order
+		 * @return this action
+		 */
+		public Action bindCombo(int maxTicks, InputHandler.Key... keys) {
+			if(keys.length == 0) throw new IllegalArgumentException("A combo needs at least one key");
+			if(maxTicks < 1) throw new IllegalArgumentException("Maximum ticks must be at least 1: " + maxTicks);
+
+			int[] indexes = new int[keys.length];
+			for(int i = 0; i < keys.length; i++) {
+				indexes[i] = indexOf(keys[i]);
+			}
+			addBinding(new Combo(indexes, maxTicks));
+			return this;
+		}
+
+		private void addBinding(Binding binding) {
+			bindings.add(binding);
+			InputActions.this.bindings.add(binding);
+			compiled = false;
+		}
+
+		/**
+		 * Removes all the bindings of the action.
+		 */
+		public void unbindAll() {
+			InputActions.this.bindings.removeAll(bindings);
+			bindings.clear();
+		}
+
+		private void update() {
+			wasDown = isDown;
+			isDown = false;
+			for(int i = 0; i < bindings.size(); i++) {
+				if(bindings.get(i).active) {
+					isDown = true;
+					break;
+				}
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return true - if any binding is active
+		 */
+		public boolean down() {
+			return isDown;
+		}
+
+		/**
+		 * @return true - if the action became active in this tick
+		 */
+		public boolean pressed() {
+			return isDown && !wasDown;
+		}
+
+		/**
+		 * @return true - if the action stopped being active in this tick
+		 */
+		public boolean released() {
+			return !isDown && wasDown;
+		}
+
+	}
+
+}
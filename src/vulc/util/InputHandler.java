@@ -13,14 +13,15 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An easy to use InputHandler supporting keys and mouse buttons.
  * Suitable for every desktop application or game that uses ticking.
  *
- * <p>This class uses Java AWT.
+ * <p>This class uses Java AWT. Input can also be injected without a component,
+ * see {@link #pressKey(int, int)}.
  * 
  * @version  1.0.1
  * @author   Vulcalien
@@ -30,9 +31,13 @@ public class InputHandler implements KeyListener,
                           MouseMotionListener,
                           FocusListener {
 
-	private enum KeyAction {
-		PRESS, RELEASE
-	}
+	// the kinds of the events in the ring
+	private static final byte PRESS = 0;
+	private static final byte RELEASE = 1;
+	private static final byte FOCUS_LOST = 2;
+
+	/** The maximum number of events received between two ticks */
+	private static final int RING_CAPACITY = 4096;
 
 	/** The type of an unbound key */
 	public static final int UNBOUND = -1;
@@ -43,15 +48,19 @@ public class InputHandler implements KeyListener,
 
 	private final List<KeyReference> keys = new ArrayList<KeyReference>();
 
-	@SuppressWarnings("rawtypes")
-	private final HashMap[] keyGroups = {
-	    new HashMap<Integer, KeyReference>(), // KEYBOARD
-	    new HashMap<Integer, KeyReference>()  // MOUSE
+	private final KeyGroup[] keyGroups = {
+	    new KeyGroup(), // KEYBOARD
+	    new KeyGroup()  // MOUSE
 	};
 
+	// written by the AWT event thread, read by the thread that calls tick()
+	private final EventRing ring = new EventRing(RING_CAPACITY);
+
 	private int xMouseToTick = -1, yMouseToTick = -1;
 	public int xMouse = -1, yMouse = -1;
 
+	private InputRecorder recorder;
+
 	public void init(Component component) {
 		component.setFocusTraversalKeysEnabled(false);
 
@@ -66,53 +75,198 @@ public class InputHandler implements KeyListener,
 	 * This method should be called before any input is processed.
 	 */
 	public void tick() {
-		for(KeyReference key : keys) {
-			key.tick();
+		ring.drain(this);
+
+		for(int i = 0; i < keys.size(); i++) {
+			keys.get(i).tick();
 		}
 		xMouse = xMouseToTick;
 		yMouse = yMouseToTick;
+
+		if(recorder != null) record(recorder);
+	}
+
+	/**
+	 * Writes the counts of the keys that changed and the mouse position of this tick.
+	 */
+	private void record(InputRecorder recorder) {
+		int changed = 0;
+		for(int i = 0; i < keys.size(); i++) {
+			KeyReference key = keys.get(i);
+			if(key.pressCount != 0 || key.releaseCount != 0) changed++;
+		}
+
+		recorder.beginTick(changed, xMouse, yMouse);
+		if(changed == 0) return;
+
+		for(int i = 0; i < keys.size(); i++) {
+			KeyReference key = keys.get(i);
+			if(key.pressCount != 0 || key.releaseCount != 0) {
+				recorder.writeKey(key.type, key.code, key.pressCount, key.releaseCount);
+			}
+		}
+	}
+
+	/**
+	 * Sets the recorder that writes the input of every tick. It should be set
+	 * by the thread that calls tick().
+	 * @param recorder the recorder, or null to stop recording
+	 */
+	public void setRecorder(InputRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * @return the recorder that writes the input of every tick, or null
+	 */
+	public InputRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Sets the counts of a key for the next tick. Used by InputReplay.
+	 */
+	void replayKey(int type, int code, int pressCount, int releaseCount) {
+		KeyReference key = getGroup(type).get(code);
+		if(key == null) return;
+
+		key.toTickPressCount = pressCount;
+		key.toTickReleaseCount = releaseCount;
+		if(releaseCount != 0) key.toTickWasReleased = true;
+		else if(pressCount != 0) key.toTickWasReleased = false;
+	}
+
+	/**
+	 * Sets the mouse position for the next tick. Used by InputReplay.
+	 */
+	void replayMouse(int x, int y) {
+		xMouseToTick = x;
+		yMouseToTick = y;
 	}
 
-	private void receiveInput(KeyAction action, int type, int code) {
+	/**
+	 * Applies an event taken from the ring. Called by the thread that calls tick().
+	 */
+	private void receiveEvent(byte kind, int a, int b, long time) {
+		switch(kind) {
+			case PRESS:
+			case RELEASE:
+				receiveInput(kind, a, b, time);
+				break;
+
+			case FOCUS_LOST:
+				releaseAll();
+				break;
+		}
+	}
+
+	private void receiveInput(byte action, int type, int code, long time) {
 		KeyReference key = getGroup(type).get(code);
 		if(key == null) return;
 
-		if(action == KeyAction.PRESS) {
+		if(action == PRESS) {
 			if(key.toTickWasReleased) {
+				if(key.toTickPressCount == 0) key.toTickPressTime = time;
 				key.toTickPressCount++;
 				key.toTickWasReleased = false;
 			}
-		} else if(action == KeyAction.RELEASE) {
+		} else if(action == RELEASE) {
 			key.toTickReleaseCount++;
 			key.toTickWasReleased = true;
 		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private HashMap<Integer, KeyReference> getGroup(int type) {
+	private void releaseAll() {
+		for(int i = 0; i < keys.size(); i++) {
+			KeyReference key = keys.get(i);
+			if(!key.toTickWasReleased) {
+				key.toTickReleaseCount++;
+				key.toTickWasReleased = true;
+			}
+		}
+	}
+
+	private KeyGroup getGroup(int type) {
 		return keyGroups[type];
 	}
 
+	/**
+	 * @throws IllegalArgumentException if the type is not KEYBOARD or MOUSE
+	 */
+	static void checkType(int type) {
+		if(type != KEYBOARD && type != MOUSE) throw new IllegalArgumentException("Invalid key type: " + type);
+	}
+
+	/**
+	 * Injects the press of a key, as if it was received from a component.
+	 * The methods that inject input must be called by a single thread,
+	 * and not while the handler receives events from a component.
+	 * @param type the type of the key, KEYBOARD or MOUSE
+	 * @param code the code of the key
+	 * @return false - if the event could not be queued because too many events were received since the last tick
+	 *
+	 * @throws IllegalArgumentException if the type is not KEYBOARD or MOUSE
+	 */
+	public boolean pressKey(int type, int code) {
+		checkType(type);
+		return ring.tryOffer(PRESS, type, code);
+	}
+
+	/**
+	 * Injects the release of a key, as if it was received from a component.
+	 * @param type the type of the key, KEYBOARD or MOUSE
+	 * @param code the code of the key
+	 * @return false - if the event could not be queued because too many events were received since the last tick
+	 * @see #pressKey(int, int)
+	 *
+	 * @throws IllegalArgumentException if the type is not KEYBOARD or MOUSE
+	 */
+	public boolean releaseKey(int type, int code) {
+		checkType(type);
+		return ring.tryOffer(RELEASE, type, code);
+	}
+
+	/**
+	 * Injects a mouse movement, as if it was received from a component.
+	 * @param x the x coordinate of the mouse
+	 * @param y the y coordinate of the mouse
+	 * @return true - movements are merged into the latest position, so they are never dropped
+	 * @see #pressKey(int, int)
+	 */
+	public boolean moveMouse(int x, int y) {
+		ring.moveMouse(x, y);
+		return true;
+	}
+
+	/**
+	 * Releases all the keys that are down, as when the component loses the focus.
+	 * @return false - if the event could not be queued because too many events were received since the last tick
+	 * @see #pressKey(int, int)
+	 */
+	public boolean releaseAllKeys() {
+		return ring.tryOffer(FOCUS_LOST, 0, 0);
+	}
+
 	public void keyTyped(KeyEvent e) {
 	}
 
 	public void keyPressed(KeyEvent e) {
-		receiveInput(KeyAction.PRESS, KEYBOARD, e.getKeyCode());
+		ring.offer(PRESS, KEYBOARD, e.getKeyCode());
 	}
 
 	public void keyReleased(KeyEvent e) {
-		receiveInput(KeyAction.RELEASE, KEYBOARD, e.getKeyCode());
+		ring.offer(RELEASE, KEYBOARD, e.getKeyCode());
 	}
 
 	public void mouseClicked(MouseEvent e) {
 	}
 
 	public void mousePressed(MouseEvent e) {
-		receiveInput(KeyAction.PRESS, MOUSE, e.getButton());
+		ring.offer(PRESS, MOUSE, e.getButton());
 	}
 
 	public void mouseReleased(MouseEvent e) {
-		receiveInput(KeyAction.RELEASE, MOUSE, e.getButton());
+		ring.offer(RELEASE, MOUSE, e.getButton());
 	}
 
 	public void mouseEntered(MouseEvent e) {
@@ -122,25 +276,227 @@ public class InputHandler implements KeyListener,
 	}
 
 	public void mouseDragged(MouseEvent e) {
-		xMouseToTick = e.getX();
-		yMouseToTick = e.getY();
+		ring.moveMouse(e.getX(), e.getY());
 	}
 
 	public void mouseMoved(MouseEvent e) {
-		xMouseToTick = e.getX();
-		yMouseToTick = e.getY();
+		ring.moveMouse(e.getX(), e.getY());
 	}
 
 	public void focusGained(FocusEvent e) {
 	}
 
 	public void focusLost(FocusEvent e) {
-		for(KeyReference key : keys) {
-			if(!key.toTickWasReleased) {
-				key.toTickReleaseCount++;
-				key.toTickWasReleased = true;
+		ring.offer(FOCUS_LOST, 0, 0);
+	}
+
+	/**
+	 * A single-producer single-consumer ring of input events. The AWT event thread
+	 * offers the events and tick() drains them, without locks and without allocating.
+	 * The events are stored in parallel arrays of primitives.
+	 * Mouse movements are not stored in the ring: only the latest position matters to a tick,
+	 * so it is kept in a field of its own and a burst of movements cannot fill the ring.
+	 */
+	private static final class EventRing {
+
+		private final int mask;
+		private final byte[] kinds;
+		private final int[] as, bs;
+		private final long[] times;
+
+		// the index of the next event to read and to write
+		private final AtomicLong head = new AtomicLong();
+		private final AtomicLong tail = new AtomicLong();
+
+		// owned by the producer
+		private long headCache = 0;
+
+		// set by the producer when an event is dropped because the ring is full
+		private volatile boolean overflow = false;
+
+		// the latest mouse position, x in the high half and y in the low half
+		private final AtomicLong mouse = new AtomicLong(pack(-1, -1));
+
+		// owned by the consumer: the last position passed to the handler
+		private long lastMouse = pack(-1, -1);
+
+		private EventRing(int capacity) {
+			this.mask = capacity - 1;
+			this.kinds = new byte[capacity];
+			this.as = new int[capacity];
+			this.bs = new int[capacity];
+			this.times = new long[capacity];
+		}
+
+		/**
+		 * Adds a press, release or focus lost event. Called by the producer.
+		 * If the ring is full, the event is dropped and the consumer releases all the keys,
+		 * so that no key stays down because its release was lost.
+		 */
+		private void offer(byte kind, int a, int b) {
+			if(!tryOffer(kind, a, b)) overflow = true;
+		}
+
+		/**
+		 * Adds an event if the ring is not full. Called by the producer.
+		 * @return false - if the ring is full
+		 */
+		private boolean tryOffer(byte kind, int a, int b) {
+			long t = tail.get();
+			if(t - headCache > mask) {
+				headCache = head.get();
+				if(t - headCache > mask) return false;
+			}
+
+			int i = (int) t & mask;
+			kinds[i] = kind;
+			as[i] = a;
+			bs[i] = b;
+			times[i] = System.nanoTime();
+
+			// publishes the event to the consumer
+			tail.lazySet(t + 1);
+			return true;
+		}
+
+		/**
+		 * Sets the latest mouse position, replacing the one that was not drained yet. Called by the producer.
+		 */
+		private void moveMouse(int x, int y) {
+			mouse.lazySet(pack(x, y));
+		}
+
+		private static long pack(int x, int y) {
+			return (long) x << 32 | y & 0xffffffffL;
+		}
+
+		/**
+		 * Passes all the available events to the handler, in order. Called by the consumer.
+		 */
+		private void drain(InputHandler handler) {
+			long h = head.get();
+			long t = tail.get();
+			try {
+				while(h != t) {
+					int i = (int) h++ & mask;
+					handler.receiveEvent(kinds[i], as[i], bs[i], times[i]);
+				}
+			} finally {
+				// an event that throws is consumed too, so that it cannot block the ring
+				head.lazySet(h);
+			}
+
+			long m = mouse.get();
+			if(m != lastMouse) {
+				lastMouse = m;
+				handler.xMouseToTick = (int) (m >> 32);
+				handler.yMouseToTick = (int) m;
+			}
+
+			if(overflow) {
+				overflow = false;
+				handler.releaseAll();
 			}
 		}
+
+	}
+
+	/**
+	 * Maps the codes of a type to their key references without boxing.
+	 * The codes lower than DENSE_SIZE, that include all the common key codes,
+	 * are stored in an array indexed by code. The others are stored in an open addressing table.
+	 */
+	private static final class KeyGroup {
+
+		private static final int DENSE_SIZE = 1024;
+
+		private final KeyReference[] dense = new KeyReference[DENSE_SIZE];
+
+		// open addressing table with linear probing, a null reference marks an empty slot
+		private int[] sparseCodes = new int[16];
+		private KeyReference[] sparseReferences = new KeyReference[16];
+		private int sparseSize = 0;
+
+		private KeyReference get(int code) {
+			if(code >= 0 && code < DENSE_SIZE) return dense[code];
+
+			int mask = sparseCodes.length - 1;
+			for(int i = hash(code) & mask; sparseReferences[i] != null; i = (i + 1) & mask) {
+				if(sparseCodes[i] == code) return sparseReferences[i];
+			}
+			return null;
+		}
+
+		private void put(int code, KeyReference reference) {
+			if(code >= 0 && code < DENSE_SIZE) {
+				dense[code] = reference;
+				return;
+			}
+
+			if((sparseSize + 1) * 2 > sparseCodes.length) resize(sparseCodes.length * 2);
+
+			int mask = sparseCodes.length - 1;
+			int i = hash(code) & mask;
+			while(sparseReferences[i] != null) {
+				if(sparseCodes[i] == code) {
+					sparseReferences[i] = reference;
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			sparseCodes[i] = code;
+			sparseReferences[i] = reference;
+			sparseSize++;
+		}
+
+		private void remove(int code) {
+			if(code >= 0 && code < DENSE_SIZE) {
+				dense[code] = null;
+				return;
+			}
+
+			int mask = sparseCodes.length - 1;
+			int i = hash(code) & mask;
+			while(sparseReferences[i] != null && sparseCodes[i] != code) {
+				i = (i + 1) & mask;
+			}
+			if(sparseReferences[i] == null) return;
+
+			// shift back the following entries, so that no probe sequence is broken
+			int j = i;
+			while(true) {
+				j = (j + 1) & mask;
+				if(sparseReferences[j] == null) break;
+
+				int home = hash(sparseCodes[j]) & mask;
+				// the entry can be moved to i only if i is between its home slot and j
+				if(((j - home) & mask) >= ((j - i) & mask)) {
+					sparseCodes[i] = sparseCodes[j];
+					sparseReferences[i] = sparseReferences[j];
+					i = j;
+				}
+			}
+			sparseReferences[i] = null;
+			sparseSize--;
+		}
+
+		private void resize(int capacity) {
+			int[] oldCodes = sparseCodes;
+			KeyReference[] oldReferences = sparseReferences;
+
+			sparseCodes = new int[capacity];
+			sparseReferences = new KeyReference[capacity];
+			sparseSize = 0;
+			for(int i = 0; i < oldCodes.length; i++) {
+				if(oldReferences[i] != null) put(oldCodes[i], oldReferences[i]);
+			}
+		}
+
+		private static int hash(int code) {
+			int h = code * 0x9e3779b9;
+			return h ^ (h >>> 16);
+		}
+
 	}
 
 	/**
@@ -155,11 +511,13 @@ public class InputHandler implements KeyListener,
 
 		private int toTickPressCount = 0;
 		private int toTickReleaseCount = 0;
+		private long toTickPressTime;
 
 		private boolean toTickWasReleased = true;
 
 		private int pressCount;
 		private int releaseCount;
+		private long pressTime;
 
 		private boolean shouldStayDown = false;
 		private boolean isKeyDown = false;
@@ -183,6 +541,7 @@ public class InputHandler implements KeyListener,
 		private void tick() {
 			pressCount = toTickPressCount;
 			releaseCount = toTickReleaseCount;
+			if(pressCount != 0) pressTime = toTickPressTime;
 
 			toTickPressCount = 0;
 			toTickReleaseCount = 0;
@@ -256,6 +615,16 @@ public class InputHandler implements KeyListener,
 			else return 0;
 		}
 
+		/**
+		 * Returns the time at which the key was last pressed, as read by System.nanoTime()
+		 * when the event was received. It can be used to measure the input latency.
+		 * @return the time of the last press, or 0 if the key was never pressed
+		 */
+		public long pressTime() {
+			if(reference != null) return reference.pressTime;
+			else return 0;
+		}
+
 	}
 
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019-2020 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+/**
+ * InputLoadGenerator pushes synthetic input through the injection API of an InputHandler,
+ * to measure the throughput of the input path and the cost of tick() without a display.<br>
+ * The events are presses and releases of the given keys and mouse movements, chosen by a seeded
+ * pseudo-random generator so that runs are repeatable. Generating an event does not allocate.
+ * @author Vulcalien
+ */
+public class InputLoadGenerator {
+
+	private final InputHandler handler;
+	private final int[] types, codes;
+	private final int width, height;
+
+	private long seed;
+
+	/**
+	 * Creates a load generator.
+	 * @param handler the handler receiving the events
+	 * @param types the types of the keys to press, KEYBOARD or MOUSE
+	 * @param codes the codes of the keys to press, one for each type
+	 * @param width the width of the area in which the mouse moves
+	 * @param height the height of the area in which the mouse moves
+	 * @param seed the seed of the pseudo-random generator
+	 *
+	 * @throws IllegalArgumentException if a type is not KEYBOARD or MOUSE
+	 * @throws IllegalArgumentException if the width or the height is not positive
+	 */
+	public InputLoadGenerator(InputHandler handler, int[] types, int[] codes, int width, int height, long seed) {
+		if(types.length != codes.length) throw new IllegalArgumentException("Types and codes must have the same length");
+		if(types.length == 0) throw new IllegalArgumentException("At least one key is needed");
+		if(width <= 0 || height <= 0) throw new IllegalArgumentException("Area must be positive: " + width + "x" + height);
+		for(int i = 0; i < types.length; i++) {
+			InputHandler.checkType(types[i]);
+		}
+
+		this.handler = handler;
+		this.types = types.clone();
+		this.codes = codes.clone();
+		this.width = width;
+		this.height = height;
+		this.seed = seed == 0 ? 1 : seed;
+	}
+
+	/**
+	 * Injects the events in the calling thread, calling handler.tick() after every
+	 * eventsPerTick events, and after the last one.
+	 * @param events the number of events to inject
+	 * @param eventsPerTick the number of events between two ticks
+	 * @param action the action to perform after every tick, for example the game tick, or null
+	 * @return the measured result
+	 */
+	public Result run(long events, int eventsPerTick, Runnable action) {
+		if(eventsPerTick < 1) throw new IllegalArgumentException("Events per tick must be at least 1: " + eventsPerTick);
+
+		long ticks = 0, tickNanos = 0, dropped = 0;
+		long start = System.nanoTime();
+		for(long i = 0; i < events; i++) {
+			if(!inject()) dropped++;
+
+			if((i + 1) % eventsPerTick == 0 || i == events - 1) {
+				long tickStart = System.nanoTime();
+				handler.tick();
+				if(action != null) action.run();
+				tickNanos += System.nanoTime() - tickStart;
+				ticks++;
+			}
+		}
+		return new Result(events, dropped, ticks, System.nanoTime() - start, tickNanos);
+	}
+
+	/**
+	 * Injects one random event.
+	 * @return false - if the event was dropped
+	 */
+	private boolean inject() {
+		int r = nextInt();
+		int kind = r & 3;
+		if(kind == 3) {
+			return handler.moveMouse((r >>> 2 & 0x7fff) % width, (r >>> 17 & 0x7fff) % height);
+		}
+
+		int key = (r >>> 2 & 0x7fffffff) % types.length;
+		if(kind == 0) return handler.releaseKey(types[key], codes[key]);
+		return handler.pressKey(types[key], codes[key]);
+	}
+
+	private int nextInt() {
+		// xorshift64
+		seed ^= seed << 13;
+		seed ^= seed >>> 7;
+		seed ^= seed << 17;
+		return (int) (seed >>> 32);
+	}
+
+	/**
+	 * The result of a run.
+	 */
+	public static final class Result {
+
+		private final long events, dropped, ticks, nanos, tickNanos;
+
+		private Result(long events, long dropped, long ticks, long nanos, long tickNanos) {
+			this.events = events;
+			this.dropped = dropped;
+			this.ticks = ticks;
+			this.nanos = nanos;
+			this.tickNanos = tickNanos;
+		}
+
+		/**
+		 * @return the number of injected events, including the dropped ones
+		 */
+		public long getEvents() {
+			return events;
+		}
+
+		/**
+		 * @return the number of events dropped because too many were injected between two ticks
+		 */
+		public long getDropped() {
+			return dropped;
+		}
+
+		/**
+		 * @return the number of ticks
+		 */
+		public long getTicks() {
+			return ticks;
+		}
+
+		/**
+		 * @return the duration of the run in nanoseconds
+		 */
+		public long getNanoseconds() {
+			return nanos;
+		}
+
+		/**
+		 * @return the number of events injected and processed per second
+		 */
+		public double getEventsPerSecond() {
+			return nanos == 0 ? 0 : events * 1e9 / nanos;
+		}
+
+		/**
+		 * @return the mean duration of a tick, including the action, in nanoseconds
+		 */
+		public long getMeanTickNanoseconds() {
+			return ticks == 0 ? 0 : tickNanos / ticks;
+		}
+
+		public String toString() {
+			return String.format("%d events (%d dropped), %d ticks in %.3f s: %.0f events/s, %d ns/tick",
+			                     events, dropped, ticks, nanos / 1e9, getEventsPerSecond(), getMeanTickNanoseconds());
+		}
+
+	}
+
+}
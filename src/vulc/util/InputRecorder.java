@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019-2020 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * InputRecorder writes what an InputHandler received in every tick to a compact binary stream,
+ * that can be played back by InputReplay.<br>
+ * For every tick, the press and release counts of the keys that changed and the mouse movement,
+ * encoded as the difference from the previous position, are written using variable length integers.
+ * A tick without input takes a single byte.
+ *
+ * <p>Only the bound keys are recorded, so the keys must be bound in the same way when replaying.
+ * @see InputHandler#setRecorder(InputRecorder)
+ * @author Vulcalien
+ */
+public class InputRecorder {
+
+	static final int MAGIC = 0x56495231; // "VIR1"
+
+	// the flags at the beginning of a tick
+	static final int HAS_KEYS = 1;
+	static final int HAS_MOUSE = 2;
+
+	/** The counts byte value meaning that the counts are written as variable length integers */
+	static final int LARGE_COUNTS = 0xff;
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[8192];
+	private int position = 0;
+
+	private int lastX = -1, lastY = -1;
+	private long ticks = 0;
+	private boolean failed = false;
+
+	/**
+	 * Creates a recorder and writes the header of the stream.
+	 * @param out the stream to write to
+	 */
+	public InputRecorder(OutputStream out) {
+		this.out = out;
+
+		writeByte(MAGIC >>> 24);
+		writeByte(MAGIC >>> 16);
+		writeByte(MAGIC >>> 8);
+		writeByte(MAGIC);
+	}
+
+	/**
+	 * Writes the beginning of a tick. Called by InputHandler.tick().
+	 * @param keyCount the number of keys that will be written
+	 */
+	void beginTick(int keyCount, int x, int y) {
+		int flags = 0;
+		if(keyCount != 0) flags |= HAS_KEYS;
+		if(x != lastX || y != lastY) flags |= HAS_MOUSE;
+
+		ensureSpace(1 + 5 * 3);
+		writeByte(flags);
+		if(keyCount != 0) writeVarInt(keyCount);
+		if(x != lastX || y != lastY) {
+			writeVarInt(zigzag(x - lastX));
+			writeVarInt(zigzag(y - lastY));
+			lastX = x;
+			lastY = y;
+		}
+		ticks++;
+	}
+
+	/**
+	 * Writes the counts of a key. Called by InputHandler.tick() after beginTick.
+	 */
+	void writeKey(int type, int code, int pressCount, int releaseCount) {
+		ensureSpace(5 + 1 + 5 * 2);
+		writeVarInt(code << 1 | type);
+		if(pressCount < 15 && releaseCount < 15) {
+			writeByte(pressCount | releaseCount << 4);
+		} else {
+			writeByte(LARGE_COUNTS);
+			writeVarInt(pressCount);
+			writeVarInt(releaseCount);
+		}
+	}
+
+	private void ensureSpace(int bytes) {
+		if(position + bytes > buffer.length) flushBuffer();
+	}
+
+	private void writeByte(int b) {
+		buffer[position++] = (byte) b;
+	}
+
+	private void writeVarInt(int value) {
+		while((value & ~0x7f) != 0) {
+			buffer[position++] = (byte) (value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	private static int zigzag(int value) {
+		return value << 1 ^ value >> 31;
+	}
+
+	private void flushBuffer() {
+		if(!failed && position != 0) {
+			try {
+				out.write(buffer, 0, position);
+			} catch(IOException e) {
+				// stop writing, so that the game is not slowed down by repeated failures
+				failed = true;
+				e.printStackTrace();
+			}
+		}
+		position = 0;
+	}
+
+	/**
+	 * Writes the buffered ticks to the stream and flushes it.
+	 *
+	 * @throws IOException
+	 */
+	public void flush() {
+		flushBuffer();
+		try {
+			if(!failed) out.flush();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes the buffered ticks and closes the stream.
+	 *
+	 * @throws IOException
+	 */
+	public void close() {
+		flushBuffer();
+		try {
+			out.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the number of recorded ticks
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019-2020 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputReplay plays back a stream written by InputRecorder, feeding it to an InputHandler
+ * tick by tick. No AWT Component is needed, so the game logic can be run headlessly
+ * and faster than real time with real input.
+ *
+ * <p>The keys must be bound as they were when the stream was recorded.
+ * While replaying, the handler should not receive other input.
+ * @author Vulcalien
+ */
+public class InputReplay {
+
+	private final InputStream in;
+	private final InputHandler handler;
+
+	private int x = -1, y = -1;
+	private long ticks = 0;
+
+	/**
+	 * Creates a replay and reads the header of the stream.
+	 * @param in the stream written by an InputRecorder
+	 * @param handler the handler to feed
+	 *
+	 * @throws IOException if the stream could not be read or it was not written by an InputRecorder
+	 */
+	public InputReplay(InputStream in, InputHandler handler) throws IOException {
+		this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+		this.handler = handler;
+
+		int magic = 0;
+		for(int i = 0; i < 4; i++) {
+			magic = magic << 8 | readByte();
+		}
+		if(magic != InputRecorder.MAGIC) throw new IOException("Not an input recording");
+	}
+
+	/**
+	 * Plays back the next tick, calling handler.tick().
+	 * @return false - if there are no more ticks
+	 *
+	 * @throws IOException if the stream could not be read
+	 */
+	public boolean tick() throws IOException {
+		int flags = in.read();
+		if(flags < 0) return false;
+
+		int keyCount = (flags & InputRecorder.HAS_KEYS) != 0 ? readVarInt() : 0;
+		if((flags & InputRecorder.HAS_MOUSE) != 0) {
+			x += unzigzag(readVarInt());
+			y += unzigzag(readVarInt());
+			handler.replayMouse(x, y);
+		}
+
+		for(int i = 0; i < keyCount; i++) {
+			int key = readVarInt();
+			int counts = readByte();
+
+			int pressCount, releaseCount;
+			if(counts == InputRecorder.LARGE_COUNTS) {
+				pressCount = readVarInt();
+				releaseCount = readVarInt();
+			} else {
+				pressCount = counts & 0xf;
+				releaseCount = counts >>> 4;
+			}
+			handler.replayKey(key & 1, key >>> 1, pressCount, releaseCount);
+		}
+
+		handler.tick();
+		ticks++;
+		return true;
+	}
+
+	/**
+	 * Plays back all the remaining ticks as fast as possible.
+	 * @param action the action to perform after every tick, for example the game tick, or null
+	 * @return the number of ticks played back
+	 *
+	 * @throws IOException if the stream could not be read
+	 */
+	public long run(Runnable action) throws IOException {
+		long count = 0;
+		while(tick()) {
+			if(action != null) action.run();
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of ticks played back
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if(b < 0) throw new EOFException("Truncated input recording");
+		return b;
+	}
+
+	private int readVarInt() throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7f) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed input recording");
+	}
+
+	private static int unzigzag(int value) {
+		return value >>> 1 ^ -(value & 1);
+	}
+
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * LoopScheduler runs several phases at different rates on a single thread and clock,
+ * for example a fixed rate update and an uncapped render.<br>
+ * Every iteration of the loop runs the phases that are due, in the order they were added,
+ * then waits until the next deadline using the wait strategy of Timer.
+ *
+ * <p>A fixed rate phase is scheduled at absolute deadlines like Timer, catching up missed ticks
+ * up to a maximum. An uncapped phase runs once per iteration.
+ * A phase with a minimum rate is adaptive: while the other phases run over their budget,
+ * its rate is lowered down to the minimum, and it is raised back when they are within budget.
+ * @author Vulcalien
+ */
+public class LoopScheduler {
+
+	/** The duration of the window over which the rates of the phases are measured */
+	private static final long MEASURE_NANOS = 1_000_000_000;
+
+	private volatile Phase[] phases = new Phase[0];
+
+	private volatile boolean mayContinue = false;
+	private volatile boolean running = false;
+	private volatile Timer.WaitStrategy waitStrategy = Timer.WaitStrategy.SLEEP;
+	private volatile Thread thread;
+
+	// set when a non-adaptive phase runs over budget, cleared when the adaptive phases adapt
+	private boolean overBudget = false;
+
+	private final Runnable runnable = new Runnable() {
+		public void run() {
+			running = true;
+
+			long now = System.nanoTime();
+			Phase[] phases = LoopScheduler.this.phases;
+			for(int i = 0; i < phases.length; i++) {
+				phases[i].reset(now);
+			}
+
+			try {
+				while(mayContinue) {
+					phases = LoopScheduler.this.phases;
+
+					// with no phases, check again for new phases after a millisecond
+					long nextDeadline = phases.length == 0 ? 1_000_000 : Long.MAX_VALUE;
+					for(int i = 0; i < phases.length && mayContinue; i++) {
+						Phase phase = phases[i];
+						phase.process(System.nanoTime());
+
+						long deadline = phase.nextTick - System.nanoTime();
+						if(deadline < nextDeadline) nextDeadline = deadline;
+					}
+
+					if(mayContinue && nextDeadline > 0) {
+						Timer.waitUntil(System.nanoTime() + nextDeadline, waitStrategy, LoopScheduler.this, mayContinueCondition);
+					}
+				}
+			} finally {
+				running = false;
+			}
+		}
+	};
+
+	private final BooleanSupplier mayContinueCondition = new BooleanSupplier() {
+		public boolean getAsBoolean() {
+			return mayContinue;
+		}
+	};
+
+	/**
+	 * Adds a phase. Phases run in the order they were added.
+	 * @param rate the rate of the phase in hertz, or 0 for an uncapped phase
+	 * @param action the action to perform
+	 * @return the added phase
+	 */
+	public Phase addPhase(double rate, Runnable action) {
+		if(rate < 0) throw new IllegalArgumentException("Rate must not be negative: " + rate);
+
+		Phase phase = new Phase(rate, action);
+		synchronized(this) {
+			Phase[] phases = Arrays.copyOf(this.phases, this.phases.length + 1);
+			phases[phases.length - 1] = phase;
+			phase.reset(System.nanoTime());
+			this.phases = phases;
+		}
+		return phase;
+	}
+
+	/**
+	 * If the loop is not running, starts a new thread.
+	 * @return false - if the loop was already running
+	 */
+	public boolean start() {
+		if(!running) {
+			mayContinue = true;
+			thread = new Thread(runnable, "LoopScheduler");
+			thread.start();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Stops the loop. Its thread is interrupted, so that it does not finish the current wait.<br>
+	 * isRunning() may return true even if stop() was called.
+	 */
+	public void stop() {
+		mayContinue = false;
+
+		// wake the thread if it is parked or sleeping
+		Thread thread = this.thread;
+		if(thread != null) {
+			LockSupport.unpark(thread);
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * @return true - if the loop is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Sets the way the loop thread waits for the next deadline. The default is SLEEP.
+	 * @param waitStrategy the wait strategy
+	 */
+	public void setWaitStrategy(Timer.WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	/**
+	 * @return the way the loop thread waits for the next deadline
+	 */
+	public Timer.WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * A phase of the loop. The statistics are measured over windows of one second.
+	 */
+	public final class Phase {
+
+		private final Runnable action;
+		private final long targetPeriod;
+
+		private volatile long budget;
+		private volatile int maxCatchUpTicks = 5;
+		private volatile long maxPeriod = 0;
+
+		private long period;
+		private volatile long nextTick;
+		private long lastRun;
+
+		private long windowStart;
+		private long windowRuns, windowDuration;
+		private volatile double measuredRate = 0;
+		private volatile long meanDuration = 0;
+		private volatile long overBudgetRuns = 0;
+
+		private Phase(double rate, Runnable action) {
+			this.action = action;
+			this.targetPeriod = rate == 0 ? 0 : Math.max(1, (long) (1_000_000_000 / rate));
+			this.period = targetPeriod;
+			this.budget = targetPeriod == 0 ? Long.MAX_VALUE : targetPeriod;
+		}
+
+		private void reset(long now) {
+			period = targetPeriod;
+			nextTick = now + period;
+			lastRun = now;
+			windowStart = now;
+			windowRuns = 0;
+			windowDuration = 0;
+		}
+
+		/**
+		 * Runs the action if it is due.
+		 */
+		private void process(long now) {
+			long nextTick = this.nextTick;
+			if(now - nextTick < 0) return;
+
+			if(period == 0) {
+				run();
+				this.nextTick = System.nanoTime();
+				return;
+			}
+
+			long due = (now - nextTick) / period + 1;
+			if(due > maxCatchUpTicks) {
+				nextTick += (due - maxCatchUpTicks) * period;
+				due = maxCatchUpTicks;
+			}
+			for(long i = 0; i < due && mayContinue; i++) {
+				run();
+				nextTick += period;
+				this.nextTick = nextTick;
+			}
+		}
+
+		private void run() {
+			long start = System.nanoTime();
+			if(maxPeriod != 0) adapt(start);
+
+			action.run();
+			long end = System.nanoTime();
+			long duration = end - start;
+
+			if(duration > budget) {
+				overBudgetRuns++;
+				if(maxPeriod == 0) overBudget = true;
+			}
+
+			windowRuns++;
+			windowDuration += duration;
+			if(end - windowStart >= MEASURE_NANOS) {
+				measuredRate = windowRuns * 1e9 / (end - windowStart);
+				meanDuration = windowDuration / windowRuns;
+				windowStart = end;
+				windowRuns = 0;
+				windowDuration = 0;
+			}
+			lastRun = start;
+		}
+
+		/**
+		 * Lowers the rate if the other phases ran over budget, otherwise raises it towards the target.
+		 */
+		private void adapt(long now) {
+			if(overBudget) {
+				overBudget = false;
+				period = Math.min(maxPeriod, Math.max(period, now - lastRun) * 5 / 4);
+			} else if(period > targetPeriod) {
+				period = period * 99 / 100;
+				if(period - targetPeriod < 10_000) period = targetPeriod;
+			}
+		}
+
+		/**
+		 * Sets the time budget of a run of the action. By default, it is the period of the phase,
+		 * or unlimited for uncapped phases.
+		 * @param nanoseconds the budget in nanoseconds
+		 */
+		public void setBudget(long nanoseconds) {
+			this.budget = nanoseconds;
+		}
+
+		/**
+		 * @return the time budget of a run of the action, in nanoseconds
+		 */
+		public long getBudget() {
+			return budget;
+		}
+
+		/**
+		 * Sets the maximum number of ticks performed at once when the phase is late.
+		 * The older missed ticks are dropped. The default is 5.
+		 * @param maxCatchUpTicks the maximum number of ticks
+		 */
+		public void setMaxCatchUpTicks(int maxCatchUpTicks) {
+			if(maxCatchUpTicks < 1) throw new IllegalArgumentException("Maximum catch-up ticks must be at least 1: " + maxCatchUpTicks);
+			this.maxCatchUpTicks = maxCatchUpTicks;
+		}
+
+		/**
+		 * Makes the phase adaptive: while the non-adaptive phases run over their budget,
+		 * the rate of this phase is lowered down to the minimum rate.
+		 * @param rate the minimum rate in hertz, or 0 to disable the adaptation
+		 */
+		public void setMinimumRate(double rate) {
+			if(rate < 0) throw new IllegalArgumentException("Rate must not be negative: " + rate);
+			this.maxPeriod = rate == 0 ? 0 : Math.max(1, (long) (1_000_000_000 / rate));
+		}
+
+		/**
+		 * @return the target rate in hertz, or 0 if the phase is uncapped
+		 */
+		public double getTargetRate() {
+			return targetPeriod == 0 ? 0 : 1e9 / targetPeriod;
+		}
+
+		/**
+		 * @return the measured rate in hertz
+		 */
+		public double getMeasuredRate() {
+			return measuredRate;
+		}
+
+		/**
+		 * @return the mean duration of the action in nanoseconds
+		 */
+		public long getMeanDuration() {
+			return meanDuration;
+		}
+
+		/**
+		 * @return the mean duration of the action divided by the budget
+		 */
+		public double getBudgetUsage() {
+			long budget = this.budget;
+			return budget == Long.MAX_VALUE ? 0 : (double) meanDuration / budget;
+		}
+
+		/**
+		 * @return the number of runs that took longer than the budget
+		 */
+		public long getOverBudgetRuns() {
+			return overBudgetRuns;
+		}
+
+		/**
+		 * Returns how far the current time is between the last tick of this phase and the next one.
+		 * A render phase can use the value of the update phase to interpolate between fixed steps.
+		 * @return a value between 0 (the last tick) and 1 (the next tick), or 0 if the phase is uncapped
+		 */
+		public double getInterpolation() {
+			if(targetPeriod == 0) return 0;
+
+			double alpha = (double) (System.nanoTime() - (nextTick - targetPeriod)) / targetPeriod;
+			if(alpha < 0) return 0;
+			if(alpha > 1) return 1;
+			return alpha;
+		}
+
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An OutputStream that writes data in the GZIP format, compressing it in parallel.<br>
+ * The data is split into blocks that are compressed at the same time by several threads.
+ * Every block uses the last 32 KB of the previous block as dictionary, so the compression ratio
+ * is almost the same as the one of a single stream. The result can be read by any GZIP decoder.
+ * @author Vulcalien
+ */
+public class ParallelGZIPOutputStream extends FilterOutputStream {
+
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static final byte[] HEADER = {
+	    0x1f, (byte) 0x8b, // magic number
+	    Deflater.DEFLATED, // compression method
+	    0,                 // flags
+	    0, 0, 0, 0,        // modification time
+	    0,                 // extra flags
+	    (byte) 0xff        // operating system: unknown
+	};
+
+	private final ExecutorService executor;
+	private final int maxPendingBlocks;
+	private final int level;
+
+	private final Queue<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+	private final CRC32 crc = new CRC32();
+	private long length = 0;
+
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int blockLength = 0;
+	private byte[] dictionary = null;
+
+	private boolean closed = false;
+
+	/**
+	 * Creates a ParallelGZIPOutputStream using the default compression level.
+	 * @param out the output stream
+	 * @param parallelism the number of blocks compressed at the same time
+	 */
+	public ParallelGZIPOutputStream(OutputStream out, int parallelism) throws IOException {
+		this(out, parallelism, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Creates a ParallelGZIPOutputStream.
+	 * @param out the output stream
+	 * @param parallelism the number of blocks compressed at the same time
+	 * @param level the compression level, from 0 to 9
+	 */
+	public ParallelGZIPOutputStream(OutputStream out, int parallelism, int level) throws IOException {
+		super(out);
+		if(parallelism <= 0) throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+
+		this.executor = Executors.newFixedThreadPool(parallelism);
+		this.maxPendingBlocks = parallelism * 2;
+		this.level = level;
+
+		out.write(HEADER);
+	}
+
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	public void write(byte[] data, int offset, int len) throws IOException {
+		if(closed) throw new IOException("Stream closed");
+
+		crc.update(data, offset, len);
+		length += len;
+
+		while(len > 0) {
+			int count = Math.min(len, BLOCK_SIZE - blockLength);
+			System.arraycopy(data, offset, block, blockLength, count);
+			blockLength += count;
+			offset += count;
+			len -= count;
+
+			if(blockLength == BLOCK_SIZE) submitBlock(false);
+		}
+	}
+
+	/**
+	 * Writes all the blocks that have been compressed. The data that does not fill a block
+	 * is kept until the block is full or the stream is closed.
+	 */
+	public void flush() throws IOException {
+		while(!pendingBlocks.isEmpty() && pendingBlocks.peek().isDone()) {
+			writeBlock();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Compresses the remaining data, writes the GZIP trailer and closes the underlying stream.
+	 */
+	public void close() throws IOException {
+		if(closed) return;
+		closed = true;
+
+		try {
+			submitBlock(true);
+			while(!pendingBlocks.isEmpty()) {
+				writeBlock();
+			}
+
+			int crcValue = (int) crc.getValue();
+			int size = (int) length;
+			out.write(new byte[] {
+			    (byte) crcValue, (byte) (crcValue >>> 8), (byte) (crcValue >>> 16), (byte) (crcValue >>> 24),
+			    (byte) size, (byte) (size >>> 8), (byte) (size >>> 16), (byte) (size >>> 24)
+			});
+			out.flush();
+		} finally {
+			executor.shutdownNow();
+			out.close();
+		}
+	}
+
+	private void submitBlock(boolean last) throws IOException {
+		final byte[] input = block;
+		final int inputLength = blockLength;
+		final byte[] inputDictionary = dictionary;
+		final boolean finish = last;
+
+		pendingBlocks.add(executor.submit(new Callable<byte[]>() {
+			public byte[] call() {
+				return compress(input, inputLength, inputDictionary, finish);
+			}
+		}));
+
+		if(!last) {
+			// the last bytes of this block become the dictionary of the next one
+			dictionary = new byte[Math.min(DICTIONARY_SIZE, inputLength)];
+			System.arraycopy(input, inputLength - dictionary.length, dictionary, 0, dictionary.length);
+
+			block = new byte[BLOCK_SIZE];
+			blockLength = 0;
+		}
+
+		while(pendingBlocks.size() > maxPendingBlocks) {
+			writeBlock();
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		try {
+			out.write(pendingBlocks.remove().get());
+		} catch(ExecutionException e) {
+			throw new IOException(e.getCause());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Compresses a block as raw deflate data. Blocks other than the last end with a sync flush,
+	 * so that they end on a byte boundary and can be concatenated.
+	 */
+	private byte[] compress(byte[] input, int inputLength, byte[] dictionary, boolean last) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if(dictionary != null) deflater.setDictionary(dictionary);
+			deflater.setInput(input, 0, inputLength);
+
+			ByteArrayOutputStream result = new ByteArrayOutputStream(inputLength / 2 + 64);
+			byte[] buffer = new byte[16 * 1024];
+			if(last) {
+				deflater.finish();
+				while(!deflater.finished()) {
+					int len = deflater.deflate(buffer);
+					result.write(buffer, 0, len);
+				}
+			} else {
+				while(!deflater.needsInput()) {
+					int len = deflater.deflate(buffer);
+					result.write(buffer, 0, len);
+				}
+				int len;
+				do {
+					len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					result.write(buffer, 0, len);
+				} while(len == buffer.length);
+			}
+			return result.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+}
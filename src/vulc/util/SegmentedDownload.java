@@ -0,0 +1,273 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import vulc.util.TransferListener.Operation;
+
+/**
+ * Downloads a file by fetching several HTTP Range segments in parallel into a preallocated file.
+ * The progress of every segment is stored in a file next to the destination,
+ * so that an interrupted download is resumed where it stopped.
+ */
+class SegmentedDownload {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long SAVE_INTERVAL = 1024 * 1024;
+
+	private final URL url;
+	private final File destination;
+	private final File progressFile;
+	private final int segments;
+
+	private long length;
+	private String etag;
+	private String lastModified;
+
+	private long[] positions;
+	private long[] ends;
+
+	private final Properties progress = new Properties();
+
+	SegmentedDownload(URL url, File destination, int segments) {
+		this.url = url;
+		this.destination = destination;
+		this.progressFile = new File(destination.getPath() + ".progress");
+		this.segments = segments;
+	}
+
+	/**
+	 * Downloads the file.
+	 * @return false - if the server does not support range requests
+	 */
+	boolean download() throws IOException {
+		if(!probe()) return false;
+
+		if(!loadProgress()) {
+			positions = new long[segments];
+			ends = new long[segments];
+
+			long segmentLength = (length + segments - 1) / segments;
+			for(int i = 0; i < segments; i++) {
+				positions[i] = Math.min(length, i * segmentLength);
+				ends[i] = Math.min(length, positions[i] + segmentLength);
+			}
+		}
+
+		try(RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+			file.setLength(length);
+			FileChannel channel = file.getChannel();
+
+			saveProgress(channel);
+			fetchSegments(channel);
+			channel.force(false);
+		} catch(RangeRejectedException e) {
+			// the resource changed or the server ignores ranges: the caller downloads it as a single stream
+			progressFile.delete();
+			return false;
+		}
+		progressFile.delete();
+		return true;
+	}
+
+	/**
+	 * Reads the length and the validators of the resource.
+	 * @return false - if the server does not support range requests
+	 */
+	private boolean probe() throws IOException {
+		URLConnection connection = url.openConnection();
+		if(!(connection instanceof HttpURLConnection)) return false;
+
+		HttpURLConnection http = (HttpURLConnection) connection;
+		try {
+			http.setRequestMethod("HEAD");
+			if(http.getResponseCode() != HttpURLConnection.HTTP_OK) return false;
+
+			length = http.getContentLengthLong();
+			etag = http.getHeaderField("ETag");
+			lastModified = http.getHeaderField("Last-Modified");
+
+			return length > 0 && "bytes".equalsIgnoreCase(http.getHeaderField("Accept-Ranges"));
+		} finally {
+			http.disconnect();
+		}
+	}
+
+	private void fetchSegments(final FileChannel channel) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(segments);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(int i = 0; i < segments; i++) {
+				final int segment = i;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						fetchSegment(channel, segment);
+						return null;
+					}
+				}));
+			}
+
+			for(Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch(ExecutionException e) {
+					saveProgress(channel);
+					Throwable cause = e.getCause();
+					if(cause instanceof IOException) throw (IOException) cause;
+					throw new IOException(cause);
+				} catch(InterruptedException e) {
+					saveProgress(channel);
+					Thread.currentThread().interrupt();
+					throw new IOException("Download interrupted: " + url, e);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void fetchSegment(FileChannel channel, int segment) throws IOException {
+		long position = getPosition(segment);
+		long end = ends[segment];
+		if(position >= end) return;
+
+		HttpURLConnection http = (HttpURLConnection) url.openConnection();
+		try {
+			http.setRequestProperty("Range", "bytes=" + position + "-" + (end - 1));
+			// weak entity tags are not allowed in If-Range
+			String validator = etag != null && !etag.startsWith("W/") ? etag : lastModified;
+			if(validator != null) http.setRequestProperty("If-Range", validator);
+
+			if(http.getResponseCode() != HttpURLConnection.HTTP_PARTIAL)
+			    throw new RangeRejectedException("Server did not accept the range request: " + url);
+
+			TransferListener listener = FileUtils.getListener();
+			long interval = FileUtils.getSamplingInterval();
+			long unreported = 0;
+
+			try(InputStream in = http.getInputStream()) {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				long unsaved = 0;
+				int lengthRead;
+				while(position < end && (lengthRead = in.read(buffer, 0, (int) Math.min(buffer.length, end - position))) >= 0) {
+					ByteBuffer data = ByteBuffer.wrap(buffer, 0, lengthRead);
+					while(data.hasRemaining()) {
+						position += channel.write(data, position);
+					}
+					setPosition(segment, position);
+
+					if(listener != null && (unreported += lengthRead) >= interval) {
+						listener.bytesTransferred(Operation.DOWNLOAD, unreported);
+						unreported = 0;
+					}
+
+					unsaved += lengthRead;
+					if(unsaved >= SAVE_INTERVAL) {
+						saveProgress(channel);
+						unsaved = 0;
+					}
+				}
+			}
+			if(listener != null && unreported != 0) listener.bytesTransferred(Operation.DOWNLOAD, unreported);
+			if(position < end) throw new IOException("Segment " + segment + " ended prematurely: " + url);
+		} finally {
+			http.disconnect();
+		}
+	}
+
+	private synchronized long getPosition(int segment) {
+		return positions[segment];
+	}
+
+	private synchronized void setPosition(int segment, long position) {
+		positions[segment] = position;
+	}
+
+	/**
+	 * Loads the progress of a previous download.
+	 * @return false - if there is no progress or it refers to a different version of the resource
+	 */
+	private boolean loadProgress() {
+		if(!progressFile.isFile() || destination.length() != length) return false;
+
+		try(InputStream in = new FileInputStream(progressFile)) {
+			progress.load(in);
+		} catch(IOException e) {
+			return false;
+		}
+
+		if(!String.valueOf(length).equals(progress.getProperty("length"))
+		   || !String.valueOf(segments).equals(progress.getProperty("segments"))
+		   || !String.valueOf(etag).equals(progress.getProperty("etag"))
+		   || !String.valueOf(lastModified).equals(progress.getProperty("lastModified"))) return false;
+
+		positions = new long[segments];
+		ends = new long[segments];
+		try {
+			for(int i = 0; i < segments; i++) {
+				positions[i] = Long.parseLong(progress.getProperty("position." + i));
+				ends[i] = Long.parseLong(progress.getProperty("end." + i));
+			}
+		} catch(RuntimeException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Saves the progress of every segment. The data is forced to the storage device first,
+	 * so that the saved positions never refer to data that was not written.
+	 */
+	private synchronized void saveProgress(FileChannel channel) throws IOException {
+		channel.force(false);
+
+		progress.setProperty("length", String.valueOf(length));
+		progress.setProperty("segments", String.valueOf(segments));
+		progress.setProperty("etag", String.valueOf(etag));
+		progress.setProperty("lastModified", String.valueOf(lastModified));
+		for(int i = 0; i < segments; i++) {
+			progress.setProperty("position." + i, String.valueOf(positions[i]));
+			progress.setProperty("end." + i, String.valueOf(ends[i]));
+		}
+
+		try(OutputStream out = new FileOutputStream(progressFile)) {
+			progress.store(out, "download progress of " + url);
+		}
+	}
+
+	/**
+	 * Thrown when the server answers a range request with the whole resource or an error.
+	 */
+	private static class RangeRejectedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private RangeRejectedException(String message) {
+			super(message);
+		}
+
+	}
+
+}
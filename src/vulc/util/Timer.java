@@ -4,15 +4,93 @@
  */
 package vulc.util;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
 /**
  * Timer is a simple timer that performs an action periodically.
  * @author Vulcalien
  */
 public class Timer {
 
+	/**
+	 * The way the timer thread waits for the next tick.
+	 */
+	public enum WaitStrategy {
+		/** Sleeps until the next tick. Cheap, but the accuracy depends on the sleep granularity of the system */
+		SLEEP,
+		/** Parks the thread until the next tick */
+		PARK,
+		/** Parks the thread until shortly before the next tick, then spins. Accurate and cheap */
+		HYBRID,
+		/** Spins until the next tick. The most accurate, but it keeps a core busy */
+		SPIN
+	}
+
+	/**
+	 * What the timer does when it is late and more than one tick is due,
+	 * for example because the action took longer than the delay.
+	 */
+	public enum OverrunPolicy {
+		/** Performs every missed tick, up to the maximum number of catch-up ticks. The oldest ticks over the maximum are dropped */
+		CATCH_UP,
+		/** Performs the action once and schedules the next tick one delay after the current time */
+		DROP,
+		/** Performs the action once for all the missed ticks, keeping the ticks aligned to the original schedule */
+		COALESCE
+	}
+
+	/**
+	 * How the ticks are dispatched when the timer has an executor.
+	 */
+	public enum DispatchPolicy {
+		/** The ticks run one at a time, in order. The timer does not wait for them */
+		SEQUENTIAL,
+		/** Up to a maximum number of ticks can run at the same time. When the limit is reached, the tick is skipped */
+		OVERLAP,
+		/** A tick is skipped if the previous one is still running */
+		SKIP
+	}
+
+	/** In HYBRID mode, the time before the next tick when the thread stops parking and starts spinning */
+	private static final long SPIN_NANOS = 200_000;
+
+	private final long nanosPerTick;
+	private final Runnable action;
 	private final Runnable runnable;
-	private boolean mayContinue = false;
-	private boolean running = false;
+	private volatile boolean mayContinue = false;
+	private volatile boolean running = false;
+	private final BooleanSupplier mayContinueCondition = new BooleanSupplier() {
+		public boolean getAsBoolean() {
+			return mayContinue;
+		}
+	};
+
+	private volatile WaitStrategy waitStrategy = WaitStrategy.SLEEP;
+	private volatile Thread thread;
+
+	private volatile OverrunPolicy overrunPolicy = OverrunPolicy.CATCH_UP;
+	private volatile int maxCatchUpTicks = Integer.MAX_VALUE;
+
+	private final TimerWheel wheel;
+	private TimerWheel.Timeout timeout;
+
+	// ticks are scheduled at absolute deadlines, so that waiting errors do not accumulate
+	private volatile long nextTick;
+
+	private final TimerStats stats;
+
+	private volatile Executor executor;
+	private volatile DispatchPolicy dispatchPolicy = DispatchPolicy.SEQUENTIAL;
+	private volatile Semaphore overlapPermits;
+	private final AtomicInteger pendingTicks = new AtomicInteger();
+
+	// the tasks are created once, so that dispatching a tick does not allocate
+	private final Runnable sequentialTask, overlapTask, skipTask;
 
 	/**
 	 * Creates the timer. It has to be started.
@@ -20,66 +98,305 @@ public class Timer {
 	 * @param action the action to perform
 	 */
 	public Timer(long nanoseconds, Runnable action) {
-		this.runnable = new Runnable() {
-			public void run() {
-				running = true;
+		this(nanoseconds, action, null);
+	}
 
-				long nanosPerTick = nanoseconds;
-				long unprocessedNanos = 0;
-				long lastTime = System.nanoTime();
+	/**
+	 * Creates the timer. It has to be started.
+	 * @param milliseconds the timer delay in milliseconds
+	 * @param action the action to perform
+	 */
+	public Timer(int milliseconds, Runnable action) {
+		this(milliseconds * 1_000_000L, action);
+	}
+
+	/**
+	 * Creates a timer that runs on a timing wheel instead of its own thread. It has to be started.<br>
+	 * The action is performed on the driver thread of the wheel, so it should be short.
+	 * The precision of the timer is the tick duration of the wheel and the wait strategy is ignored.
+	 * @param nanoseconds the timer delay in nanoseconds
+	 * @param action the action to perform
+	 * @param wheel the wheel that runs the timer, or null to use a thread of its own
+	 */
+	public Timer(long nanoseconds, Runnable action, TimerWheel wheel) {
+		this.nanosPerTick = nanoseconds;
+		this.action = action;
+		this.wheel = wheel;
+		this.stats = new TimerStats(nanoseconds);
 
-				while(mayContinue) {
-					long now = System.nanoTime();
-					long passedTime = now - lastTime;
-					lastTime = now;
-					if(passedTime < 0) passedTime = 0;
+		this.sequentialTask = new Runnable() {
+			public void run() {
+				do {
+					runAction();
+				} while(pendingTicks.decrementAndGet() > 0);
+			}
+		};
+		this.overlapTask = new Runnable() {
+			public void run() {
+				try {
+					runAction();
+				} finally {
+					overlapPermits.release();
+				}
+			}
+		};
+		this.skipTask = new Runnable() {
+			public void run() {
+				try {
+					runAction();
+				} finally {
+					pendingTicks.set(0);
+				}
+			}
+		};
 
-					unprocessedNanos += passedTime;
+		this.runnable = new Runnable() {
+			public void run() {
+				running = true;
 
-					while(unprocessedNanos > nanosPerTick) {
-						action.run();
-						unprocessedNanos -= nanosPerTick;
-					}
+				nextTick = System.nanoTime() + nanosPerTick;
+				try {
+					while(mayContinue) {
+						processTicks(System.nanoTime());
 
-					if(mayContinue) try {
-						Thread.sleep(1);
-					} catch(InterruptedException e) {
-						e.printStackTrace();
+						if(mayContinue) waitUntil(nextTick);
 					}
+				} finally {
+					running = false;
 				}
-				running = false;
 			}
 		};
 	}
 
 	/**
-	 * Creates the timer. It has to be started.
+	 * Creates a timer that runs on a timing wheel instead of its own thread. It has to be started.
 	 * @param milliseconds the timer delay in milliseconds
 	 * @param action the action to perform
+	 * @param wheel the wheel that runs the timer, or null to use a thread of its own
 	 */
-	public Timer(int milliseconds, Runnable action) {
-		this(milliseconds * 1_000_000L, action);
+	public Timer(int milliseconds, Runnable action, TimerWheel wheel) {
+		this(milliseconds * 1_000_000L, action, wheel);
+	}
+
+	/**
+	 * Performs the action for the ticks whose deadline has passed, according to the overrun policy.
+	 * @param now the current value of System.nanoTime()
+	 * @return the deadline of the next tick
+	 */
+	private long processTicks(long now) {
+		long nextTick = this.nextTick;
+		if(now - nextTick < 0) return nextTick;
+
+		long due = (now - nextTick) / nanosPerTick + 1;
+		switch(overrunPolicy) {
+			case CATCH_UP:
+				long maxTicks = maxCatchUpTicks;
+				if(due > maxTicks) {
+					stats.recordOverrun(due - maxTicks);
+					nextTick += (due - maxTicks) * nanosPerTick;
+					due = maxTicks;
+				} else if(due > 1) {
+					stats.recordOverrun(0);
+				}
+				for(long i = 0; i < due; i++) {
+					performTick(nextTick);
+					nextTick += nanosPerTick;
+					this.nextTick = nextTick;
+				}
+				break;
+
+			case DROP:
+				if(due > 1) stats.recordOverrun(due - 1);
+				performTick(now - (now - nextTick) % nanosPerTick);
+				nextTick = now + nanosPerTick;
+				this.nextTick = nextTick;
+				break;
+
+			case COALESCE:
+				if(due > 1) stats.recordOverrun(due - 1);
+				performTick(nextTick + (due - 1) * nanosPerTick);
+				nextTick += due * nanosPerTick;
+				this.nextTick = nextTick;
+				break;
+		}
+		return nextTick;
+	}
+
+	/**
+	 * Performs the action, or dispatches it to the executor, and records its statistics.
+	 * @param deadline the time at which the tick should have started
+	 */
+	private void performTick(long deadline) {
+		long start = System.nanoTime();
+		stats.recordTick(deadline, start);
+
+		Executor executor = this.executor;
+		if(executor == null) {
+			action.run();
+			stats.recordAction(start, System.nanoTime());
+			return;
+		}
+
+		switch(dispatchPolicy) {
+			case SEQUENTIAL:
+				// if a task is already running, it will run this tick too
+				if(pendingTicks.getAndIncrement() == 0) {
+					if(!dispatch(executor, sequentialTask)) pendingTicks.set(0);
+				}
+				break;
+
+			case OVERLAP:
+				// waiting for a permit would block the timer thread, or the driver of a whole wheel
+				Semaphore permits = overlapPermits;
+				if(permits.tryAcquire()) {
+					if(!dispatch(executor, overlapTask)) permits.release();
+				} else {
+					stats.recordMissed(1);
+				}
+				break;
+
+			case SKIP:
+				if(pendingTicks.compareAndSet(0, 1)) {
+					if(!dispatch(executor, skipTask)) pendingTicks.set(0);
+				} else {
+					stats.recordMissed(1);
+				}
+				break;
+		}
+	}
+
+	private boolean dispatch(Executor executor, Runnable task) {
+		try {
+			executor.execute(task);
+			return true;
+		} catch(RejectedExecutionException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the action on an executor thread. Exceptions are printed so that the dispatch state stays valid.
+	 */
+	private void runAction() {
+		long start = System.nanoTime();
+		try {
+			action.run();
+		} catch(RuntimeException e) {
+			e.printStackTrace();
+		}
+		stats.recordAction(start, System.nanoTime());
+	}
+
+	private void waitUntil(long deadline) {
+		waitUntil(deadline, waitStrategy, this, mayContinueCondition);
+	}
+
+	/**
+	 * Waits until the deadline using the wait strategy. Also used by LoopScheduler.
+	 * @param deadline the deadline, compared to System.nanoTime()
+	 * @param strategy the wait strategy
+	 * @param blocker the object responsible for parking
+	 * @param mayContinue when false, spinning stops before the deadline
+	 */
+	static void waitUntil(long deadline, WaitStrategy strategy, Object blocker, BooleanSupplier mayContinue) {
+		long remaining = deadline - System.nanoTime();
+		if(remaining <= 0) return;
+
+		switch(strategy) {
+			case SLEEP:
+				try {
+					Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+				} catch(InterruptedException e) {
+					// woken by stop(), the caller checks whether it may continue
+				}
+				break;
+
+			case PARK:
+				LockSupport.parkNanos(blocker, remaining);
+				break;
+
+			case HYBRID:
+				if(remaining > SPIN_NANOS) {
+					LockSupport.parkNanos(blocker, remaining - SPIN_NANOS);
+				}
+				while(mayContinue.getAsBoolean() && deadline - System.nanoTime() > 0) {
+					Thread.onSpinWait();
+				}
+				break;
+
+			case SPIN:
+				while(mayContinue.getAsBoolean() && deadline - System.nanoTime() > 0) {
+					Thread.onSpinWait();
+				}
+				break;
+		}
 	}
 
 	/**
-	 * If the timer is not running, starts a new thread.
+	 * If the timer is not running, starts a new thread or schedules the timer on its wheel.
 	 * @return false - if the timer was already running
 	 */
 	public boolean start() {
+		if(wheel != null) {
+			synchronized(this) {
+				if(running) return false;
+
+				running = true;
+				mayContinue = true;
+				nextTick = System.nanoTime() + nanosPerTick;
+				timeout = wheel.schedule(new TimerWheel.Task() {
+					public long run(long now) {
+						try {
+							return processTicks(now);
+						} catch(RuntimeException e) {
+							// the wheel cancels a task that throws, so the timer stops as its thread would
+							synchronized(Timer.this) {
+								mayContinue = false;
+								running = false;
+								timeout = null;
+							}
+							throw e;
+						}
+					}
+				}, nextTick);
+				return true;
+			}
+		}
+
 		if(!running) {
 			mayContinue = true;
-			new Thread(runnable).start();
+			thread = new Thread(runnable);
+			thread.start();
 			return true;
 		}
 		return false;
 	}
 
 	/**
-	 * Stops the timer.<br>
+	 * Stops the timer. Its thread is interrupted, so that it does not finish the current wait.<br>
 	 * isRunning() may return true even if stop() was called.
 	 */
 	public void stop() {
 		mayContinue = false;
+
+		if(wheel != null) {
+			synchronized(this) {
+				if(timeout != null) {
+					wheel.cancel(timeout);
+					timeout = null;
+				}
+				running = false;
+			}
+			return;
+		}
+
+		// wake the thread if it is parked or sleeping
+		Thread thread = this.thread;
+		if(thread != null) {
+			LockSupport.unpark(thread);
+			thread.interrupt();
+		}
 	}
 
 	/**
@@ -89,4 +406,114 @@ public class Timer {
 		return running;
 	}
 
+	/**
+	 * Returns the statistics of the timer: tick interval, action duration, lateness and overruns.
+	 * They can be published through JMX with TimerStats.register.
+	 * @return the statistics of the timer
+	 */
+	public TimerStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Sets an executor that runs the action, so that a slow action does not delay the timer
+	 * and the ticks can use other cores. The executor should be set before the timer is started.
+	 * For the OVERLAP policy, the maximum number of concurrent ticks is the number of processors.
+	 * @param executor the executor, for example a ForkJoinPool, or null to run the action on the timer thread
+	 * @param dispatchPolicy how the ticks are dispatched
+	 */
+	public void setExecutor(Executor executor, DispatchPolicy dispatchPolicy) {
+		setExecutor(executor, dispatchPolicy, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Sets an executor that runs the action, so that a slow action does not delay the timer
+	 * and the ticks can use other cores. The executor should be set before the timer is started.
+	 * @param executor the executor, for example a ForkJoinPool, or null to run the action on the timer thread
+	 * @param dispatchPolicy how the ticks are dispatched
+	 * @param maxOverlap the maximum number of concurrent ticks for the OVERLAP policy
+	 */
+	public void setExecutor(Executor executor, DispatchPolicy dispatchPolicy, int maxOverlap) {
+		if(maxOverlap < 1) throw new IllegalArgumentException("Maximum overlap must be at least 1: " + maxOverlap);
+
+		this.overlapPermits = new Semaphore(maxOverlap);
+		this.dispatchPolicy = dispatchPolicy;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the executor that runs the action, or null if it runs on the timer thread
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @return how the ticks are dispatched to the executor
+	 */
+	public DispatchPolicy getDispatchPolicy() {
+		return dispatchPolicy;
+	}
+
+	/**
+	 * Sets the way the timer thread waits for the next tick. The default is SLEEP.
+	 * @param waitStrategy the wait strategy
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	/**
+	 * @return the way the timer thread waits for the next tick
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Sets what the timer does when more than one tick is due. The default is CATCH_UP.
+	 * @param overrunPolicy the overrun policy
+	 */
+	public void setOverrunPolicy(OverrunPolicy overrunPolicy) {
+		this.overrunPolicy = overrunPolicy;
+	}
+
+	/**
+	 * @return what the timer does when more than one tick is due
+	 */
+	public OverrunPolicy getOverrunPolicy() {
+		return overrunPolicy;
+	}
+
+	/**
+	 * Sets the maximum number of ticks performed at once by the CATCH_UP policy,
+	 * including the one that is due. The default is unbounded.
+	 * @param maxCatchUpTicks the maximum number of ticks
+	 */
+	public void setMaxCatchUpTicks(int maxCatchUpTicks) {
+		if(maxCatchUpTicks < 1) throw new IllegalArgumentException("Maximum catch-up ticks must be at least 1: " + maxCatchUpTicks);
+		this.maxCatchUpTicks = maxCatchUpTicks;
+	}
+
+	/**
+	 * @return the maximum number of ticks performed at once by the CATCH_UP policy
+	 */
+	public int getMaxCatchUpTicks() {
+		return maxCatchUpTicks;
+	}
+
+	/**
+	 * Returns how far the current time is between the last tick and the next one.
+	 * Renderers can use it to interpolate between fixed steps.
+	 * @return a value between 0 (the last tick) and 1 (the next tick), or 0 if the timer is not running
+	 */
+	public double getInterpolation() {
+		if(!running) return 0;
+
+		double alpha = (double) (System.nanoTime() - (nextTick - nanosPerTick)) / nanosPerTick;
+		if(alpha < 0) return 0;
+		if(alpha > 1) return 1;
+		return alpha;
+	}
+
 }
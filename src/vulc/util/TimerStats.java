@@ -0,0 +1,295 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * TimerStats records the tick rate, the action duration and the scheduling lateness of a Timer.<br>
+ * Times are recorded in histograms with power of two buckets, so recording a tick does not allocate.
+ * The statistics can be read with the getters or through JMX.
+ * @see Timer#getStats()
+ * @author Vulcalien
+ */
+public class TimerStats implements TimerStatsMXBean {
+
+	private final long nanosPerTick;
+
+	private final AtomicLong ticks = new AtomicLong();
+	private final AtomicLong overruns = new AtomicLong();
+	private final AtomicLong missedTicks = new AtomicLong();
+	private final AtomicLong slowActions = new AtomicLong();
+
+	private final Histogram tickInterval = new Histogram();
+	private final Histogram actionDuration = new Histogram();
+	private final Histogram lateness = new Histogram();
+
+	private final AtomicLong lastTickStart = new AtomicLong();
+
+	private ObjectName objectName;
+
+	TimerStats(long nanosPerTick) {
+		this.nanosPerTick = nanosPerTick;
+	}
+
+	/**
+	 * Records a performed tick.
+	 * @param deadline the time at which the tick should have started
+	 * @param start the time at which the tick started
+	 */
+	void recordTick(long deadline, long start) {
+		ticks.incrementAndGet();
+
+		long last = lastTickStart.getAndSet(start);
+		if(last != 0) tickInterval.record(start - last);
+
+		lateness.record(start - deadline);
+	}
+
+	/**
+	 * Records an execution of the action.
+	 * @param start the time at which the action started
+	 * @param end the time at which the action ended
+	 */
+	void recordAction(long start, long end) {
+		long duration = end - start;
+		actionDuration.record(duration);
+		if(duration > nanosPerTick) slowActions.incrementAndGet();
+	}
+
+	/**
+	 * Records that more than one tick was due.
+	 * @param missed the number of ticks that will not be performed
+	 */
+	void recordOverrun(long missed) {
+		overruns.incrementAndGet();
+		missedTicks.addAndGet(missed);
+	}
+
+	/**
+	 * Records ticks that were not performed.
+	 * @param missed the number of ticks
+	 */
+	void recordMissed(long missed) {
+		missedTicks.addAndGet(missed);
+	}
+
+	public long getTicks() {
+		return ticks.get();
+	}
+
+	public long getOverruns() {
+		return overruns.get();
+	}
+
+	public long getMissedTicks() {
+		return missedTicks.get();
+	}
+
+	public long getSlowActions() {
+		return slowActions.get();
+	}
+
+	/**
+	 * @return the histogram of the time between the start of two consecutive ticks
+	 */
+	public Histogram getTickInterval() {
+		return tickInterval;
+	}
+
+	/**
+	 * @return the histogram of the time taken by the action
+	 */
+	public Histogram getActionDuration() {
+		return actionDuration;
+	}
+
+	/**
+	 * @return the histogram of the time between the deadline of a tick and its start
+	 */
+	public Histogram getLateness() {
+		return lateness;
+	}
+
+	public long getTickIntervalMean() {
+		return tickInterval.getMean();
+	}
+
+	public long getTickIntervalMax() {
+		return tickInterval.getMax();
+	}
+
+	public long getTickInterval99thPercentile() {
+		return tickInterval.getPercentile(99);
+	}
+
+	public long getActionDurationMean() {
+		return actionDuration.getMean();
+	}
+
+	public long getActionDurationMax() {
+		return actionDuration.getMax();
+	}
+
+	public long getActionDuration99thPercentile() {
+		return actionDuration.getPercentile(99);
+	}
+
+	public long getLatenessMean() {
+		return lateness.getMean();
+	}
+
+	public long getLatenessMax() {
+		return lateness.getMax();
+	}
+
+	public long getLateness99thPercentile() {
+		return lateness.getPercentile(99);
+	}
+
+	public void reset() {
+		ticks.set(0);
+		overruns.set(0);
+		missedTicks.set(0);
+		slowActions.set(0);
+		lastTickStart.set(0);
+
+		tickInterval.reset();
+		actionDuration.reset();
+		lateness.reset();
+	}
+
+	/**
+	 * Registers the statistics in the platform MBean server,
+	 * with the object name "vulc.util:type=Timer,name=<i>name</i>".
+	 * @param name the name of the timer
+	 *
+	 * @throws JMException
+	 */
+	public synchronized void register(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("vulc.util:type=Timer,name=" + ObjectName.quote(name));
+			server.registerMBean(this, objectName);
+			this.objectName = objectName;
+		} catch(JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Removes the statistics from the platform MBean server, if they were registered.
+	 *
+	 * @throws JMException
+	 */
+	public synchronized void unregister() {
+		if(objectName == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch(JMException e) {
+			e.printStackTrace();
+		}
+		objectName = null;
+	}
+
+	/**
+	 * A histogram of times in nanoseconds. The bucket i counts the values
+	 * between 2<sup>i-1</sup> (inclusive) and 2<sup>i</sup> (exclusive); the bucket 0 counts the zeros.
+	 */
+	public static final class Histogram {
+
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		private Histogram() {
+		}
+
+		private void record(long value) {
+			if(value < 0) value = 0;
+
+			buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(value), 63));
+			count.incrementAndGet();
+			sum.addAndGet(value);
+
+			long oldMax;
+			while(value > (oldMax = max.get())) {
+				if(max.compareAndSet(oldMax, value)) break;
+			}
+		}
+
+		private void reset() {
+			for(int i = 0; i < buckets.length(); i++) {
+				buckets.set(i, 0);
+			}
+			count.set(0);
+			sum.set(0);
+			max.set(0);
+		}
+
+		/**
+		 * @return the number of recorded values
+		 */
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * @return the mean of the recorded values, or 0 if there are none
+		 */
+		public long getMean() {
+			long count = this.count.get();
+			return count == 0 ? 0 : sum.get() / count;
+		}
+
+		/**
+		 * @return the maximum recorded value
+		 */
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * Returns an upper bound of the percentile, accurate to a factor of two.
+		 * @param percentile the percentile, between 0 and 100
+		 * @return the upper bound of the bucket containing the percentile, or 0 if there are no values
+		 */
+		public long getPercentile(double percentile) {
+			long count = this.count.get();
+			if(count == 0) return 0;
+
+			long target = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for(int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if(seen >= target) {
+					long bound = i == 0 ? 0 : (i == 63 ? Long.MAX_VALUE : (1L << i) - 1);
+					return Math.min(bound, max.get());
+				}
+			}
+			return max.get();
+		}
+
+		/**
+		 * @return a copy of the bucket counts
+		 */
+		public long[] getBuckets() {
+			long[] result = new long[buckets.length()];
+			for(int i = 0; i < result.length; i++) {
+				result[i] = buckets.get(i);
+			}
+			return result;
+		}
+
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+/**
+ * The management interface of TimerStats. All the times are in nanoseconds.
+ * @see TimerStats#register(String)
+ * @author Vulcalien
+ */
+public interface TimerStatsMXBean {
+
+	/**
+	 * @return the number of ticks performed
+	 */
+	long getTicks();
+
+	/**
+	 * @return the number of times the timer was late by more than one tick
+	 */
+	long getOverruns();
+
+	/**
+	 * @return the number of ticks that were dropped or coalesced by the overrun policy,
+	 *         or skipped by the dispatch policy
+	 */
+	long getMissedTicks();
+
+	/**
+	 * @return the number of times the action took longer than the delay
+	 */
+	long getSlowActions();
+
+	long getTickIntervalMean();
+
+	long getTickIntervalMax();
+
+	long getTickInterval99thPercentile();
+
+	long getActionDurationMean();
+
+	long getActionDurationMax();
+
+	long getActionDuration99thPercentile();
+
+	long getLatenessMean();
+
+	long getLatenessMax();
+
+	long getLateness99thPercentile();
+
+	/**
+	 * Resets all the counters and histograms.
+	 */
+	void reset();
+
+}
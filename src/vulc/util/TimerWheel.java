@@ -0,0 +1,243 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TimerWheel is a hashed timing wheel that runs many timers on a single driver thread.<br>
+ * Time is divided into ticks of fixed duration and every scheduled task is stored in the slot
+ * of the tick it expires in, so scheduling and cancelling a task are O(1) operations.
+ * A task runs on the driver thread in the first tick after its deadline.
+ * @see Timer#Timer(long, Runnable, TimerWheel)
+ * @author Vulcalien
+ */
+public class TimerWheel {
+
+	private static TimerWheel defaultWheel;
+
+	/**
+	 * A task run by the wheel.
+	 */
+	public interface Task {
+
+		/**
+		 * Runs the task.
+		 * @param now the current value of System.nanoTime()
+		 * @return the deadline, compared to System.nanoTime(), of the next run
+		 */
+		long run(long now);
+
+	}
+
+	private final long tickNanos;
+	private final Slot[] wheel;
+	private final int mask;
+
+	private final long startTime = System.nanoTime();
+	private long currentTick = 0;
+	private int count = 0;
+
+	private Thread driver;
+
+	/**
+	 * Creates a timing wheel. The driver thread is started when the first task is scheduled.
+	 * @param tickNanos the duration of a tick in nanoseconds, i.e. the precision of the wheel
+	 * @param slots the number of slots of the wheel, rounded up to a power of two
+	 */
+	public TimerWheel(long tickNanos, int slots) {
+		if(tickNanos <= 0) throw new IllegalArgumentException("Tick duration must be positive: " + tickNanos);
+		if(slots <= 0) throw new IllegalArgumentException("Number of slots must be positive: " + slots);
+
+		int size = Integer.highestOneBit(slots);
+		if(size < slots) size <<= 1;
+
+		this.tickNanos = tickNanos;
+		this.wheel = new Slot[size];
+		this.mask = size - 1;
+		for(int i = 0; i < size; i++) {
+			wheel[i] = new Slot();
+		}
+	}
+
+	/**
+	 * Returns the default wheel, with a tick of 1 millisecond and 512 slots.
+	 * @return the default wheel
+	 */
+	public static synchronized TimerWheel getDefault() {
+		if(defaultWheel == null) defaultWheel = new TimerWheel(1_000_000, 512);
+		return defaultWheel;
+	}
+
+	/**
+	 * Schedules a task. After every run, the task is scheduled again at the deadline it returns,
+	 * until it is cancelled.
+	 * @param task the task to run
+	 * @param deadline the deadline, compared to System.nanoTime(), of the first run
+	 * @return the timeout that can be used to cancel the task
+	 */
+	public Timeout schedule(Task task, long deadline) {
+		Timeout timeout = new Timeout(task);
+		synchronized(this) {
+			if(count == 0) {
+				// the wheel was idle, skip the ticks that passed in the meantime
+				currentTick = Math.max(currentTick, (System.nanoTime() - startTime) / tickNanos);
+				notifyAll();
+			}
+			add(timeout, deadline);
+
+			if(driver == null) {
+				driver = new Thread(new Runnable() {
+					public void run() {
+						drive();
+					}
+				}, "TimerWheel");
+				driver.setDaemon(true);
+				driver.start();
+			}
+		}
+		return timeout;
+	}
+
+	/**
+	 * Adds the timeout to the slot of the tick it expires in. Must hold the lock.
+	 */
+	private void add(Timeout timeout, long deadline) {
+		long elapsed = deadline - startTime;
+		long tick = elapsed <= 0 ? 0 : (elapsed + tickNanos - 1) / tickNanos;
+		if(tick <= currentTick) tick = currentTick + 1;
+
+		timeout.rounds = (tick - currentTick - 1) / wheel.length;
+		wheel[(int) (tick & mask)].add(timeout);
+		count++;
+	}
+
+	private void drive() {
+		List<Timeout> expired = new ArrayList<Timeout>();
+		while(true) {
+			long deadline;
+			synchronized(this) {
+				while(count == 0) {
+					try {
+						wait();
+					} catch(InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+				deadline = startTime + (currentTick + 1) * tickNanos;
+			}
+
+			long remaining;
+			while((remaining = deadline - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(this, remaining);
+			}
+
+			long now = System.nanoTime();
+			synchronized(this) {
+				// if the driver is late, process all the ticks that passed
+				long nowTick = (now - startTime) / tickNanos;
+				while(currentTick < nowTick) {
+					currentTick++;
+					wheel[(int) (currentTick & mask)].expire(expired);
+				}
+				count -= expired.size();
+			}
+
+			for(int i = 0; i < expired.size(); i++) {
+				Timeout timeout = expired.get(i);
+				long next;
+				try {
+					next = timeout.task.run(now);
+				} catch(RuntimeException e) {
+					e.printStackTrace();
+					timeout.cancelled = true;
+					continue;
+				}
+
+				synchronized(this) {
+					if(!timeout.cancelled) add(timeout, next);
+				}
+			}
+			expired.clear();
+		}
+	}
+
+	/**
+	 * Cancels a task. If the task is running, it will not be scheduled again.
+	 * @param timeout the timeout returned by schedule
+	 */
+	public synchronized void cancel(Timeout timeout) {
+		if(timeout.cancelled) return;
+		timeout.cancelled = true;
+
+		if(timeout.slot != null) {
+			timeout.slot.remove(timeout);
+			count--;
+		}
+	}
+
+	/**
+	 * A scheduled task. Timeouts are nodes of the doubly linked list of a slot.
+	 */
+	public static final class Timeout {
+
+		private final Task task;
+
+		private Slot slot;
+		private Timeout previous, next;
+		private long rounds;
+		private boolean cancelled = false;
+
+		private Timeout(Task task) {
+			this.task = task;
+		}
+
+	}
+
+	private static class Slot {
+
+		private Timeout head;
+
+		private void add(Timeout timeout) {
+			timeout.slot = this;
+			timeout.previous = null;
+			timeout.next = head;
+			if(head != null) head.previous = timeout;
+			head = timeout;
+		}
+
+		private void remove(Timeout timeout) {
+			if(timeout.previous != null) timeout.previous.next = timeout.next;
+			else head = timeout.next;
+			if(timeout.next != null) timeout.next.previous = timeout.previous;
+
+			timeout.slot = null;
+			timeout.previous = null;
+			timeout.next = null;
+		}
+
+		/**
+		 * Removes the timeouts that expire in the current round and adds them to the list.
+		 * The rounds of the other timeouts are decremented.
+		 */
+		private void expire(List<Timeout> expired) {
+			Timeout timeout = head;
+			while(timeout != null) {
+				Timeout next = timeout.next;
+				if(timeout.rounds <= 0) {
+					remove(timeout);
+					expired.add(timeout);
+				} else {
+					timeout.rounds--;
+				}
+				timeout = next;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.io.File;
+
+/**
+ * A TransferListener receives the progress of the operations performed by FileUtils.<br>
+ * Operations may run on several threads at the same time, so implementations must be thread-safe.
+ * @see FileUtils#setListener(TransferListener)
+ * @author Vulcalien
+ */
+public interface TransferListener {
+
+	/**
+	 * The operation that is being reported.
+	 */
+	enum Operation {
+		COPY, MOVE, DELETE, DOWNLOAD
+	}
+
+	/**
+	 * Called while data is being transferred.
+	 * The bytes are reported in chunks of about the sampling interval.
+	 * @param operation the operation transferring the data
+	 * @param bytes the number of bytes transferred since the last call
+	 * @see FileUtils#setSamplingInterval(long)
+	 */
+	void bytesTransferred(Operation operation, long bytes);
+
+	/**
+	 * Called when a file has been processed.
+	 * @param operation the operation that processed the file
+	 * @param file the processed file
+	 * @param bytes the number of bytes transferred, 0 if no data was transferred
+	 * @param nanoseconds the time spent processing the file
+	 */
+	void fileCompleted(Operation operation, File file, long bytes, long nanoseconds);
+
+	/**
+	 * Called when an operation fails.
+	 * @param operation the operation that failed
+	 * @param file the file that was being processed
+	 * @param error the cause of the failure
+	 */
+	void failed(Operation operation, File file, Throwable error);
+
+}
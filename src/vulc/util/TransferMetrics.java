@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 Vulcalien
+ * This code is licensed under MIT License by Vulcalien (see LICENSE)
+ */
+package vulc.util;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TransferMetrics is a TransferListener that accumulates the progress of FileUtils operations:
+ * bytes transferred, files processed, throughput, time per file and failures by type.
+ * @author Vulcalien
+ */
+public class TransferMetrics implements TransferListener {
+
+	private static final int OPERATIONS = Operation.values().length;
+
+	private final LongAdder[] bytes = new LongAdder[OPERATIONS];
+	private final LongAdder[] files = new LongAdder[OPERATIONS];
+	private final LongAdder[] nanoseconds = new LongAdder[OPERATIONS];
+	private final LongAdder[] failures = new LongAdder[OPERATIONS];
+
+	private final ConcurrentHashMap<String, LongAdder> failuresByType = new ConcurrentHashMap<String, LongAdder>();
+
+	private volatile long startTime = System.nanoTime();
+
+	public TransferMetrics() {
+		for(int i = 0; i < OPERATIONS; i++) {
+			bytes[i] = new LongAdder();
+			files[i] = new LongAdder();
+			nanoseconds[i] = new LongAdder();
+			failures[i] = new LongAdder();
+		}
+	}
+
+	public void bytesTransferred(Operation operation, long bytes) {
+		this.bytes[operation.ordinal()].add(bytes);
+	}
+
+	public void fileCompleted(Operation operation, File file, long bytes, long nanoseconds) {
+		this.files[operation.ordinal()].increment();
+		this.nanoseconds[operation.ordinal()].add(nanoseconds);
+	}
+
+	public void failed(Operation operation, File file, Throwable error) {
+		failures[operation.ordinal()].increment();
+
+		String type = error.getClass().getName();
+		LongAdder counter = failuresByType.get(type);
+		if(counter == null) {
+			counter = new LongAdder();
+			LongAdder previous = failuresByType.putIfAbsent(type, counter);
+			if(previous != null) counter = previous;
+		}
+		counter.increment();
+	}
+
+	/**
+	 * Resets all the metrics and the time used to compute the throughput.
+	 */
+	public void reset() {
+		for(int i = 0; i < OPERATIONS; i++) {
+			bytes[i].reset();
+			files[i].reset();
+			nanoseconds[i].reset();
+			failures[i].reset();
+		}
+		failuresByType.clear();
+		startTime = System.nanoTime();
+	}
+
+	/**
+	 * @return the number of bytes transferred by all the operations
+	 */
+	public long getBytesTransferred() {
+		return sum(bytes);
+	}
+
+	/**
+	 * @param operation the operation
+	 * @return the number of bytes transferred by the operation
+	 */
+	public long getBytesTransferred(Operation operation) {
+		return bytes[operation.ordinal()].sum();
+	}
+
+	/**
+	 * @return the number of files processed by all the operations
+	 */
+	public long getFilesProcessed() {
+		return sum(files);
+	}
+
+	/**
+	 * @param operation the operation
+	 * @return the number of files processed by the operation
+	 */
+	public long getFilesProcessed(Operation operation) {
+		return files[operation.ordinal()].sum();
+	}
+
+	/**
+	 * @return the average number of bytes transferred per second since the creation or the last reset
+	 */
+	public double getBytesPerSecond() {
+		long elapsed = System.nanoTime() - startTime;
+		if(elapsed <= 0) return 0;
+		return getBytesTransferred() * 1_000_000_000.0 / elapsed;
+	}
+
+	/**
+	 * @param operation the operation
+	 * @return the average time, in nanoseconds, the operation spent on a file
+	 */
+	public double getNanosecondsPerFile(Operation operation) {
+		long count = files[operation.ordinal()].sum();
+		if(count == 0) return 0;
+		return (double) nanoseconds[operation.ordinal()].sum() / count;
+	}
+
+	/**
+	 * @return the number of failures of all the operations
+	 */
+	public long getFailures() {
+		return sum(failures);
+	}
+
+	/**
+	 * @param operation the operation
+	 * @return the number of failures of the operation
+	 */
+	public long getFailures(Operation operation) {
+		return failures[operation.ordinal()].sum();
+	}
+
+	/**
+	 * @return a snapshot mapping the class name of every failure type to the number of failures
+	 */
+	public Map<String, Long> getFailuresByType() {
+		Map<String, Long> result = new HashMap<String, Long>();
+		for(Map.Entry<String, LongAdder> entry : failuresByType.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().sum());
+		}
+		return result;
+	}
+
+	private static long sum(LongAdder[] adders) {
+		long result = 0;
+		for(int i = 0; i < adders.length; i++) {
+			result += adders[i].sum();
+		}
+		return result;
+	}
+
+}